@@ -0,0 +1,59 @@
+package benchmarks;
+
+import model.DedupeReport;
+import model.FileEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import services.DedupeService;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Grouping of an in-memory index: the original {@code groupingBy(sha256)} from {@code Main} against
+ * the size-first {@link DedupeService} pipeline. Every entry carries a stored hash, so no files are read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DedupeBenchmark {
+    @Param({"100000", "1000000"})
+    public int entries;
+
+    private List<FileEntry> fileEntries;
+
+    @Setup(Level.Trial)
+    public void generateIndex() {
+        BenchmarkSupport.quietLogging();
+        fileEntries = IndexGenerator.entries(entries, 42);
+    }
+
+    @Benchmark
+    public Map<String, List<FileEntry>> groupingByHash() {
+        Map<String, List<FileEntry>> grouped = fileEntries.stream().collect(Collectors.groupingBy(FileEntry::sha256));
+        return grouped.entrySet().stream()
+                .filter(e -> e.getValue().size() > 1)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    @Benchmark
+    public DedupeReport sizeFirstPipeline() {
+        return new DedupeService().findDuplicates(Path.of("/bench/root"), fileEntries);
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+import services.CompactIndex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Retained heap of the watcher's in-memory index: the original {@code ConcurrentHashMap<Path, FileEntry>}
+ * against {@link CompactIndex}. Not a JMH benchmark, since JMH measures time; run it with a heap large
+ * enough for the map, e.g.
+ * {@code java -Xmx8g -cp benchmarks/target/benchmarks.jar benchmarks.IndexFootprint 5000000}.
+ */
+public final class IndexFootprint {
+    private IndexFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long map = retainedBytes(entries, list -> {
+            Map<Path, FileEntry> index = new ConcurrentHashMap<>();
+            for (FileEntry entry : list) {
+                index.put(entry.relativePath(), entry);
+            }
+            return index;
+        });
+        long compact = retainedBytes(entries, list -> {
+            CompactIndex index = new CompactIndex(list.size(), HashAlgorithm.SHA256);
+            list.forEach(index::put);
+            return index;
+        });
+
+        System.out.printf("%,d entries%n", entries);
+        System.out.printf("ConcurrentHashMap<Path, FileEntry>: %,d MB (%d bytes/entry)%n", map >> 20, map / entries);
+        System.out.printf("CompactIndex:                       %,d MB (%d bytes/entry)%n", compact >> 20, compact / entries);
+    }
+
+    /**
+     * Heap still in use once {@code build} has run and the generated entry list is garbage, so only what
+     * the index itself keeps alive is counted.
+     */
+    private static long retainedBytes(int entries, Function<List<FileEntry>, Object> build) {
+        long before = usedAfterGc();
+        Object index = build.apply(IndexGenerator.entries(entries, 42));
+        long after = usedAfterGc();
+        Reference.reachabilityFence(index);
+        return after - before;
+    }
+
+    private static long usedAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import model.FileEntry;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic index entries for benchmarks that never touch the files themselves. Paths are spread over
+ * a few directory levels, sizes follow a rough log-uniform spread, and a fraction of entries repeat an
+ * earlier size and hash to act as duplicates. Entries come back sorted by relative path, like a scan.
+ */
+public final class IndexGenerator {
+    public static final double DUPLICATE_RATIO = 0.05;
+
+    private IndexGenerator() {
+    }
+
+    public static List<FileEntry> entries(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        HexFormat hex = HexFormat.of();
+        byte[] digest = new byte[32];
+        List<FileEntry> entries = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            Path path = Path.of(String.format("d%03d/d%03d/file-%08d.dat", i % 997, (i / 997) % 101, i));
+            long mtime = 1_700_000_000_000L + random.nextLong(365L * 24 * 3600 * 1000);
+            if (i > 0 && random.nextDouble() < DUPLICATE_RATIO) {
+                FileEntry original = entries.get(random.nextInt(i));
+                entries.add(new FileEntry(path, original.size(), mtime, original.sha256()));
+                continue;
+            }
+            long size = (long) Math.pow(2, random.nextDouble() * 30);
+            for (int b = 0; b < digest.length; b += 8) {
+                long value = random.nextLong();
+                for (int k = 0; k < 8; k++) {
+                    digest[b + k] = (byte) (value >>> (k * 8));
+                }
+            }
+            entries.add(new FileEntry(path, size, mtime, hex.formatHex(digest)));
+        }
+        entries.sort(FileEntry.BY_PATH);
+        return entries;
+    }
+}
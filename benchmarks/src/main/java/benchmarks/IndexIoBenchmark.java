@@ -0,0 +1,88 @@
+package benchmarks;
+
+import model.FileEntry;
+import model.IndexData;
+import model.IndexFormat;
+import model.ScanSummary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import services.IndexReader;
+import services.IndexStoreService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IndexStoreService} save and load for both formats. The 10^7 case needs a large heap for the
+ * entry list, e.g. {@code java -jar benchmarks.jar IndexIoBenchmark -jvmArgs -Xmx8g}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class IndexIoBenchmark {
+    @Param({"100000", "1000000", "10000000"})
+    public int entries;
+
+    @Param({"V1", "V2"})
+    public IndexFormat format;
+
+    private List<FileEntry> fileEntries;
+    private ScanSummary summary;
+    private Path saved;
+    private Path loaded;
+
+    @Setup(Level.Trial)
+    public void generateIndex() throws IOException {
+        BenchmarkSupport.quietLogging();
+        fileEntries = IndexGenerator.entries(entries, 42);
+        long totalBytes = fileEntries.stream().mapToLong(FileEntry::size).sum();
+        summary = new ScanSummary("/bench/root", totalBytes, fileEntries.size(), 0);
+
+        saved = Files.createTempFile("filebox-save-", ".idx");
+        loaded = Files.createTempFile("filebox-load-", ".idx");
+        new IndexStoreService(summary, loaded.toString(), format).save(fileEntries);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(loaded);
+    }
+
+    @Benchmark
+    public void save() {
+        new IndexStoreService(summary, saved.toString(), format).save(fileEntries);
+    }
+
+    @Benchmark
+    public IndexData load() {
+        return IndexStoreService.load(loaded);
+    }
+
+    @Benchmark
+    public void stream(Blackhole blackhole) {
+        try (IndexReader reader = IndexStoreService.openReader(loaded)) {
+            while (reader.hasNext()) {
+                blackhole.consume(reader.next());
+            }
+        }
+    }
+}
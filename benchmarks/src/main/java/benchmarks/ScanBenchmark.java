@@ -0,0 +1,73 @@
+package benchmarks;
+
+import model.FilterRules;
+import model.HashAlgorithm;
+import model.IndexFormat;
+import model.ReadSchedule;
+import model.ScanOptions;
+import model.ScanSummary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import services.ScannerService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link ScannerService#scan()} over generated trees: walk, stat, hash and index write.
+ * Runs warm, so the page cache holds the tree and the numbers show CPU cost rather than disk speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+    @Param({"MANY_TINY", "MIXED", "FEW_HUGE"})
+    public TreeShape shape;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    @Param({"true", "false"})
+    public boolean hashing;
+
+    @Param({"XXH64", "SHA256"})
+    public HashAlgorithm algorithm;
+
+    private Path root;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void generateTree() throws IOException {
+        BenchmarkSupport.quietLogging();
+        root = TreeGenerator.generate(Files.createTempDirectory("filebox-scan-"), shape, 42);
+        output = Files.createTempFile("filebox-scan-", ".txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        BenchmarkSupport.deleteTree(root);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public ScanSummary scan() {
+        ScanOptions options = new ScanOptions(workers, ScanOptions.DEFAULT_QUEUE_CAPACITY, false, hashing, IndexFormat.V1, algorithm, FilterRules.NONE, ScanOptions.NO_CHUNKING, ReadSchedule.DEFAULT);
+        return new ScannerService(root.toString(), output.toString(), options).scan();
+    }
+}
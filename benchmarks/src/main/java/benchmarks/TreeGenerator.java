@@ -0,0 +1,88 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Builds reproducible test trees: the same shape and seed always give the same paths, sizes, contents
+ * and modification times, so results can be compared between runs and machines. A fraction of the
+ * files are byte-for-byte copies of earlier ones, so dedupe has something to find.
+ *
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar benchmarks.TreeGenerator ./data MANY_TINY 42
+ * </pre>
+ */
+public final class TreeGenerator {
+    public static final double DUPLICATE_RATIO = 0.05;
+    // Fixed mtime so incremental scans and index diffs see the same tree every time.
+    private static final FileTime MTIME = FileTime.fromMillis(1_700_000_000_000L);
+    private static final int CHUNK = 64 * 1024;
+
+    private TreeGenerator() {
+    }
+
+    public static Path generate(Path root, TreeShape shape, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        byte[] chunk = new byte[CHUNK];
+        long[] sizes = new long[shape.files];
+        long[] seeds = new long[shape.files];
+
+        for (int i = 0; i < shape.files; i++) {
+            boolean duplicate = i > 0 && random.nextDouble() < DUPLICATE_RATIO;
+            int source = duplicate ? random.nextInt(i) : i;
+            sizes[i] = duplicate ? sizes[source] : shape.minSize + (long) (random.nextDouble() * (shape.maxSize - shape.minSize));
+            seeds[i] = duplicate ? seeds[source] : random.nextLong();
+
+            Path file = root.resolve(directoryFor(i, shape)).resolve(String.format("file-%06d.bin", i));
+            Files.createDirectories(file.getParent());
+            writeContent(file, sizes[i], seeds[i], chunk);
+            Files.setLastModifiedTime(file, MTIME);
+        }
+        return root;
+    }
+
+    private static Path directoryFor(int fileIndex, TreeShape shape) {
+        Path dir = Path.of("");
+        int bucket = fileIndex;
+        for (int level = 0; level < shape.depth; level++) {
+            dir = dir.resolve(String.format("d%d-%02d", level, bucket % shape.fanout));
+            bucket /= shape.fanout;
+        }
+        return dir;
+    }
+
+    private static void writeContent(Path file, long size, long seed, byte[] chunk) throws IOException {
+        SplittableRandom content = new SplittableRandom(seed);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int length = (int) Math.min(chunk.length, remaining);
+                for (int i = 0; i < length; i += 8) {
+                    long value = content.nextLong();
+                    for (int b = 0; b < 8 && i + b < length; b++) {
+                        chunk[i + b] = (byte) (value >>> (b * 8));
+                    }
+                }
+                out.write(chunk, 0, length);
+                remaining -= length;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: TreeGenerator <root> <" + String.join("|", Arrays.stream(TreeShape.values()).map(Enum::name).toList()) + "> [seed]");
+            System.exit(1);
+        }
+        Path root = Path.of(args[0]);
+        TreeShape shape = TreeShape.valueOf(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        generate(root, shape, seed);
+        System.out.println("Generated " + shape.files + " files under " + root.toAbsolutePath());
+    }
+}
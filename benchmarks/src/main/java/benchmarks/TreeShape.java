@@ -0,0 +1,24 @@
+package benchmarks;
+
+/**
+ * Synthetic directory trees for scan benchmarks. Sizes are drawn uniformly between the bounds.
+ */
+public enum TreeShape {
+    MANY_TINY(20_000, 20, 3, 64, 4 * 1024),
+    MIXED(2_000, 10, 3, 1024, 8L * 1024 * 1024),
+    FEW_HUGE(4, 2, 1, 256L * 1024 * 1024, 512L * 1024 * 1024);
+
+    final int files;
+    final int fanout;
+    final int depth;
+    final long minSize;
+    final long maxSize;
+
+    TreeShape(int files, int fanout, int depth, long minSize, long maxSize) {
+        this.files = files;
+        this.fanout = fanout;
+        this.depth = depth;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+}
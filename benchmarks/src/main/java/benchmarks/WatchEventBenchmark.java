@@ -0,0 +1,98 @@
+package benchmarks;
+
+import model.FileEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import services.EventCoalescer;
+import services.IndexJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Per-event cost of watch mode without the kernel in the loop: coalescing a burst of events and
+ * appending the resulting changes to the journal. Reported as throughput in events per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WatchEventBenchmark {
+    private static final int BURST = 10_000;
+
+    /**
+     * Events per distinct path in a burst; higher means more is coalesced away.
+     */
+    @Param({"1", "10", "100"})
+    public int eventsPerPath;
+
+    private Path[] paths;
+    private List<FileEntry> entries;
+    private Path indexFile;
+    private IndexJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.quietLogging();
+        paths = new Path[BURST / eventsPerPath];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = Path.of("dir-" + (i % 50), "file-" + i + ".log");
+        }
+        entries = IndexGenerator.entries(BURST, 7);
+        indexFile = Files.createTempFile("filebox-watch-", ".txt");
+        journal = new IndexJournal(indexFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        Files.deleteIfExists(IndexJournal.journalFileFor(indexFile));
+        Files.deleteIfExists(indexFile);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncateJournal() throws IOException {
+        journal.truncate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public List<EventCoalescer.Change> coalesceBurst() {
+        EventCoalescer coalescer = new EventCoalescer(0);
+        long now = 0;
+        for (int round = 0; round < eventsPerPath; round++) {
+            for (Path path : paths) {
+                coalescer.record(path, round == 0 ? ENTRY_CREATE : ENTRY_MODIFY, now++);
+            }
+        }
+        return coalescer.drainSettled(Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void appendToJournal() throws IOException {
+        for (FileEntry entry : entries) {
+            journal.appendUpsert(entry);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import services.CompactIndex;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-operation cost of the watcher's index, map against {@link CompactIndex}: a lookup as done by
+ * resync and an update as done for every applied change. Heap footprint is measured by
+ * {@link IndexFootprint}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WatchIndexBenchmark {
+    @Param({"1000000"})
+    public int entries;
+
+    private List<FileEntry> fileEntries;
+    private Map<Path, FileEntry> map;
+    private CompactIndex compact;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void buildIndexes() {
+        fileEntries = IndexGenerator.entries(entries, 42);
+        map = new ConcurrentHashMap<>();
+        compact = new CompactIndex(entries, HashAlgorithm.SHA256);
+        for (FileEntry entry : fileEntries) {
+            map.put(entry.relativePath(), entry);
+            compact.put(entry);
+        }
+    }
+
+    private FileEntry nextEntry() {
+        next = (next + 7919) % fileEntries.size();
+        return fileEntries.get(next);
+    }
+
+    @Benchmark
+    public FileEntry mapGet() {
+        return map.get(nextEntry().relativePath());
+    }
+
+    @Benchmark
+    public FileEntry compactGet() {
+        return compact.get(nextEntry().relativePath());
+    }
+
+    @Benchmark
+    public FileEntry mapPut() {
+        FileEntry entry = nextEntry();
+        return map.put(entry.relativePath(), entry);
+    }
+
+    @Benchmark
+    public void compactPut() {
+        compact.put(nextEntry());
+    }
+}
@@ -1,17 +1,53 @@
+import model.DedupeReport;
+import model.Backpressure;
+import model.ChunkReport;
+import model.CrossDedupeSummary;
+import model.DedupeStage;
+import model.DiffSummary;
+import model.DuplicateCopy;
+import model.DuplicateGroup;
 import model.FileEntry;
+import model.FilterRules;
+import model.HashAlgorithm;
 import model.IndexData;
+import model.IndexFormat;
+import model.Query;
+import model.QuerySort;
+import model.QueryStats;
+import model.ReadSchedule;
+import model.SharedFile;
+import model.ScanOptions;
 import model.ScanSummary;
+import model.SchedulerReport;
+import model.WatchOptions;
+import services.ChunkDedupeService;
+import services.CrossIndexDedupeService;
+import services.DedupeService;
+import services.IndexClient;
+import services.IndexDiffService;
+import services.IndexServer;
 import services.IndexStoreService;
+import services.QueryService;
 import services.ScannerService;
+import services.ChunkIndexReader;
+import services.GearChunker;
 import services.WatcherService;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class Main {
     private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
@@ -21,9 +57,10 @@ public class Main {
             LOGGER.warning("No arguments provided");
         }
 
-        String command = args.length >= 1 ? args[0] : null;
-        String path = args.length > 1 ? args[1] : null;
-        String output = args.length > 2 ? args[2] : "index.txt";
+        List<String> positional = positionalArgs(args);
+        String command = positional.size() >= 1 ? positional.get(0) : null;
+        String path = positional.size() > 1 ? positional.get(1) : null;
+        String output = positional.size() > 2 ? positional.get(2) : "index.txt";
 
 
         switch (command) {
@@ -35,18 +72,48 @@ public class Main {
 
                 LOGGER.info(String.format("Scanning path: %s", path));
 
-                ScannerService scannerService = new ScannerService(path, output);
+                int workers = intOption(args, "--workers", 1);
+                int queueCapacity = intOption(args, "--queue", ScanOptions.DEFAULT_QUEUE_CAPACITY);
+                boolean incremental = hasFlag(args, "--incremental");
+                boolean hashing = !hasFlag(args, "--no-hash");
+                IndexFormat format = formatOption(args, IndexFormat.V1);
+                HashAlgorithm hashAlgorithm = algorithmOption(args, HashAlgorithm.DEFAULT);
+                ScanOptions scanOptions = null;
+                try {
+                    int chunkSize = hasFlag(args, "--chunks")
+                            ? (int) Math.min(Integer.MAX_VALUE, sizeOption(args, "--chunk-size", GearChunker.DEFAULT_AVERAGE_SIZE))
+                            : ScanOptions.NO_CHUNKING;
+                    ReadSchedule readSchedule = new ReadSchedule(
+                            sizeOption(args, "--max-in-flight", ReadSchedule.DEFAULT_MAX_BYTES_IN_FLIGHT),
+                            sizeOption(args, "--bandwidth", ReadSchedule.UNLIMITED_BANDWIDTH),
+                            !hasFlag(args, "--fixed-workers"));
+                    scanOptions = new ScanOptions(workers, queueCapacity, incremental, hashing, format, hashAlgorithm,
+                            filterRulesOption(args), chunkSize, readSchedule);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning(e.getMessage());
+                    System.exit(1);
+                }
+
+                ScannerService scannerService = new ScannerService(path, output, scanOptions);
                 ScanSummary scanSummary = scannerService.scan();
 
                 if (scanSummary != null) {
                     LOGGER.info(String.format("Found %d files, %d MB. Scan took %d ms", scanSummary.totalFiles(), scanSummary.totalBytes()/1000000, scanSummary.durationMillis()));
+                    if (incremental) {
+                        LOGGER.info(String.format("Reused %d hashes, rehashed %d changed files, added %d, removed %d",
+                                scanSummary.reusedFiles(), scanSummary.rehashedFiles(), scanSummary.addedFiles(), scanSummary.removedFiles()));
+                    }
+                    if (scanSummary.scheduler() != null) {
+                        LOGGER.info("Scheduler: " + describe(scanSummary.scheduler()));
+                    }
+                    LOGGER.info("Timings: " + scannerService.metrics().describe());
                 } else {
                     LOGGER.warning("Scan failed");
                     System.exit(2);
                 }
             }
             case "dedupe" -> {
-                String indexPath = args.length > 1 ? args[1] : "index.txt";
+                String indexPath = path != null ? path : "index.txt";
 
                 Path indexFile = Path.of(indexPath).toAbsolutePath().normalize();
 
@@ -55,31 +122,38 @@ public class Main {
                     System.exit(1);
                 }
 
-                IndexData data = IndexStoreService.load(indexFile);
+                if (positional.size() > 2) {
+                    dedupeAcrossIndexes(args, positional.subList(1, positional.size()));
+                    System.exit(0);
+                }
 
-                Map<String, List<FileEntry>> grouped = data.entries().stream().collect(Collectors.groupingBy(FileEntry::sha256));
+                if (hasFlag(args, "--chunks")) {
+                    reportChunks(args, indexFile);
+                    System.exit(0);
+                }
 
-                Map<String, List<FileEntry>> duplicates = grouped.entrySet().stream().filter(e -> e.getValue().size() > 1).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                DedupeReport report = new DedupeService(hasFlag(args, "--verify")).findDuplicates(indexFile);
 
+                for (DedupeStage stage : report.stages()) {
+                    LOGGER.info(String.format("Stage %s: %d candidates, %d eliminated, %d remaining%s",
+                            stage.name(), stage.candidatesIn(), stage.eliminated(), stage.candidatesOut(),
+                            stage.unreadable() > 0 ? String.format(" (%d could not be read)", stage.unreadable()) : ""));
+                }
 
-                if(duplicates.isEmpty()) {
+                if (report.groups().isEmpty()) {
                     LOGGER.info("No duplicates found");
 
                     System.exit(0);
                 }
 
-                LOGGER.info("Found " + duplicates.size() + " duplicates");
-
-                for(Map.Entry<String, List<FileEntry>> entry : duplicates.entrySet()) {
-                    String hash = entry.getKey();
-                    List<FileEntry> files = entry.getValue();
+                LOGGER.info("Found " + report.groups().size() + " duplicates");
 
-                    long size = files.getFirst().size();
+                for (DuplicateGroup group : report.groups()) {
                     LOGGER.info(String.format("Group: %d copies, %d bytes, hash: %s",
-                            files.size(), size, hash.substring(0, 16) + "..."));
+                            group.files().size(), group.size(), group.sha256().substring(0, Math.min(16, group.sha256().length())) + "..."));
 
-                    for(FileEntry file : files) {
-                        LOGGER.info(" - "+ file.relativePath());
+                    for (FileEntry file : group.files()) {
+                        LOGGER.info(" - " + file.relativePath());
                     }
                 }
             }
@@ -90,9 +164,11 @@ public class Main {
                 }
 
                 Path watchPath = Path.of(path).toAbsolutePath().normalize();
-                String indexPath = args.length > 2 ? args[2] : "index.txt";
+                String indexPath = output;
 
-                IndexData data = IndexStoreService.load(Path.of(indexPath));
+                // Only the header is read here; the watcher loads the entries while it registers directories.
+                Path indexFile = Path.of(indexPath);
+                IndexData data = IndexStoreService.readHeader(indexFile);
 
                 Path indexRootPath = Path.of(data.path()).toAbsolutePath().normalize();
 
@@ -101,20 +177,181 @@ public class Main {
                     System.exit(1);
                 }
 
+                WatchOptions watchOptions = null;
+                try {
+                    String backpressure = option(args, "--backpressure");
+                    watchOptions = new WatchOptions(
+                            intOption(args, "--compact-every", (int) WatchOptions.DEFAULT_COMPACT_THRESHOLD),
+                            intOption(args, "--compact-interval", (int) WatchOptions.DEFAULT_COMPACT_INTERVAL_SECONDS),
+                            intOption(args, "--quiet-ms", (int) WatchOptions.DEFAULT_QUIET_MILLIS),
+                            intOption(args, "--workers", WatchOptions.DEFAULT_WORKERS),
+                            intOption(args, "--queue", WatchOptions.DEFAULT_QUEUE_CAPACITY),
+                            backpressure != null ? Backpressure.parse(backpressure) : Backpressure.BLOCK,
+                            filterRulesOption(args));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning(e.getMessage());
+                    System.exit(1);
+                }
+
                 try {
-                    WatcherService watcher = new WatcherService(indexRootPath, data.entries(), indexPath);
+                    WatcherService watcher = new WatcherService(indexRootPath, () -> IndexStoreService.load(indexFile).entries(),
+                            data.hashAlgorithm(), indexPath, watchOptions);
                     watcher.registerDirectory(Path.of(path));
 
+                    String socket = option(args, "--socket");
+                    IndexServer server = null;
+                    if (socket != null) {
+                        try {
+                            server = new IndexServer(Path.of(socket), watcher);
+                        } catch (IOException e) {
+                            LOGGER.warning(String.format("Cannot serve on %s: %s", socket, e.getMessage()));
+                            System.exit(2);
+                        }
+                    }
+                    IndexServer daemon = server;
+
                     Runtime.getRuntime().addShutdownHook(new Thread(() ->{
                         LOGGER.info("Shutting down watcher");
+                        if (daemon != null) {
+                            try {
+                                daemon.close();
+                            } catch (IOException e) {
+                                LOGGER.warning("Cannot close server socket: " + e.getMessage());
+                            }
+                        }
                         watcher.stop();
                     }));
 
+                    if (server != null) {
+                        server.start();
+                    }
+
                     watcher.start();
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             }
+            case "convert" -> {
+                if (path == null || positional.size() < 3) {
+                    LOGGER.warning("Usage: filebox convert <input> <output> [--format=v1|v2]");
+                    System.exit(1);
+                }
+
+                Path inputFile = Path.of(path).toAbsolutePath().normalize();
+                if (!Files.exists(inputFile)) {
+                    LOGGER.warning("Index file does not exist");
+                    System.exit(1);
+                }
+
+                IndexFormat sourceFormat = IndexStoreService.detectFormat(inputFile);
+                IndexFormat targetFormat = formatOption(args, sourceFormat == IndexFormat.V1 ? IndexFormat.V2 : IndexFormat.V1);
+
+                IndexData data = IndexStoreService.load(inputFile);
+                long totalBytes = data.entries().stream().mapToLong(FileEntry::size).sum();
+                ScanSummary summary = new ScanSummary(data.path(), totalBytes, data.entries().size(), 0);
+                new IndexStoreService(summary, output, targetFormat, data.hashAlgorithm()).save(data.entries());
+
+                LOGGER.info(String.format("Converted %d entries from %s to %s", data.entries().size(), sourceFormat, targetFormat));
+            }
+            case "query" -> {
+                Path indexFile = Path.of(path != null ? path : "index.txt").toAbsolutePath().normalize();
+                if (!Files.exists(indexFile)) {
+                    LOGGER.warning("Index file does not exist");
+                    System.exit(1);
+                }
+
+                Query query = null;
+                try {
+                    String sort = option(args, "--sort");
+                    query = new Query(
+                            sizeOption(args, "--min-size", 0), sizeOption(args, "--max-size", Long.MAX_VALUE),
+                            timeOption(args, "--newer-than", Long.MIN_VALUE), timeOption(args, "--older-than", Long.MAX_VALUE),
+                            option(args, "--ext"), option(args, "--glob"), option(args, "--hash"),
+                            sort != null ? QuerySort.parse(sort) : QuerySort.PATH, hasFlag(args, "--desc"),
+                            sizeOption(args, "--limit", Query.NO_LIMIT));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning(e.getMessage());
+                    System.exit(1);
+                }
+
+                QueryService queryService = new QueryService(IndexStoreService.load(indexFile));
+                PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+                QueryStats stats = queryService.run(query, entry -> out.printf("%s\t%d\t%d\t%s%n",
+                        entry.relativePath(), entry.size(), entry.lastModifiedTime(), entry.sha256()));
+                out.flush();
+
+                LOGGER.info(String.format("%d matches; %s index narrowed %d entries to %d candidates",
+                        stats.matched(), stats.index(), queryService.size(), stats.candidates()));
+            }
+            case "diff" -> {
+                if (path == null || positional.size() < 3) {
+                    LOGGER.warning("Usage: filebox diff <old index> <new index>");
+                    System.exit(1);
+                }
+
+                Path oldIndex = Path.of(path).toAbsolutePath().normalize();
+                Path newIndex = Path.of(positional.get(2)).toAbsolutePath().normalize();
+                if (!Files.exists(oldIndex) || !Files.exists(newIndex)) {
+                    LOGGER.warning("Index file does not exist");
+                    System.exit(1);
+                }
+
+                PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+                DiffSummary summary = new IndexDiffService().diff(oldIndex, newIndex, change -> {
+                    switch (change.type()) {
+                        case ADDED -> out.printf("A\t%s%n", change.after().relativePath());
+                        case REMOVED -> out.printf("D\t%s%n", change.before().relativePath());
+                        case MODIFIED -> out.printf("M\t%s%n", change.after().relativePath());
+                        case MOVED -> out.printf("R\t%s\t%s%n", change.before().relativePath(), change.after().relativePath());
+                    }
+                });
+                out.flush();
+
+                LOGGER.info(String.format("%d added, %d removed, %d modified, %d moved, %d unchanged",
+                        summary.added(), summary.removed(), summary.modified(), summary.moved(), summary.unchanged()));
+            }
+            case "sort" -> {
+                if (path == null) {
+                    LOGGER.warning("Usage: filebox sort <index> [output]");
+                    System.exit(1);
+                }
+
+                Path inputFile = Path.of(path).toAbsolutePath().normalize();
+                if (!Files.exists(inputFile)) {
+                    LOGGER.warning("Index file does not exist");
+                    System.exit(1);
+                }
+
+                IndexFormat format = IndexStoreService.detectFormat(inputFile);
+                IndexData data = IndexStoreService.load(inputFile);
+                long totalBytes = data.entries().stream().mapToLong(FileEntry::size).sum();
+                ScanSummary summary = new ScanSummary(data.path(), totalBytes, data.entries().size(), 0);
+                String target = positional.size() > 2 ? output : path;
+                new IndexStoreService(summary, target, format, data.hashAlgorithm()).save(data.entries());
+
+                LOGGER.info(String.format("Wrote %d entries to %s in path order", data.entries().size(), target));
+            }
+            case "client" -> {
+                if (path == null || positional.size() < 3) {
+                    LOGGER.warning("Usage: filebox client <socket> <request>");
+                    System.exit(1);
+                }
+
+                String request = String.join(" ", positional.subList(2, positional.size()));
+                PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+                try {
+                    new IndexClient(Path.of(path)).request(request, out::println);
+                } catch (IllegalArgumentException e) {
+                    out.flush();
+                    LOGGER.warning(e.getMessage());
+                    System.exit(1);
+                } catch (IOException e) {
+                    out.flush();
+                    LOGGER.warning(String.format("Cannot reach daemon on %s: %s", path, e.getMessage()));
+                    System.exit(2);
+                }
+                out.flush();
+            }
             case "help", "-h", "--help" -> {
                 printUsage();
                 System.exit(0);
@@ -128,11 +365,290 @@ public class Main {
 
     }
 
+    private static void reportChunks(String[] args, Path indexFile) {
+        if (!ChunkIndexReader.exists(indexFile)) {
+            LOGGER.warning("No chunk file next to the index; scan with --chunks first");
+            System.exit(1);
+        }
+        ChunkReport report = null;
+        try {
+            report = new ChunkDedupeService(intOption(args, "--chunk-table", ChunkDedupeService.DEFAULT_TABLE_CAPACITY))
+                    .report(indexFile, intOption(args, "--top", 20));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Error while reading chunk file: %s", e.getMessage()));
+            System.exit(2);
+        }
+
+        String estimate = report.sampleRate() > 1 ? String.format(" (estimated from 1 in %d chunks)", report.sampleRate()) : "";
+        LOGGER.info(String.format("%d files in %d chunks, %d MB; %d MB (%.1f%%) is repeated chunks%s",
+                report.files(), report.chunks(), report.totalBytes() / 1000000, report.duplicateBytes() / 1000000,
+                report.totalBytes() == 0 ? 0.0 : 100.0 * report.duplicateBytes() / report.totalBytes(), estimate));
+        for (SharedFile file : report.topFiles()) {
+            LOGGER.info(String.format(" - %s: %d of %d bytes shared%s", file.relativePath(), file.sharedBytes(), file.size(),
+                    file.sharedMostWith() != null ? ", most with " + file.sharedMostWith() : " within itself"));
+        }
+    }
+
+    private static void dedupeAcrossIndexes(String[] args, List<String> indexPaths) {
+        if (hasFlag(args, "--chunks")) {
+            LOGGER.warning("dedupe --chunks takes a single index");
+            System.exit(1);
+        }
+        List<Path> indexFiles = indexPaths.stream().map(indexPath -> Path.of(indexPath).toAbsolutePath().normalize()).toList();
+        for (Path indexFile : indexFiles) {
+            if (!Files.exists(indexFile)) {
+                LOGGER.warning("Index file does not exist: " + indexFile);
+                System.exit(1);
+            }
+        }
+        String spillDirectory = option(args, "--spill-dir");
+
+        CrossDedupeSummary summary = null;
+        try {
+            CrossIndexDedupeService service = new CrossIndexDedupeService(
+                    Path.of(spillDirectory != null ? spillDirectory : System.getProperty("java.io.tmpdir")),
+                    sizeOption(args, "--sort-memory", CrossIndexDedupeService.DEFAULT_SORT_MEMORY));
+            summary = service.findDuplicates(indexFiles, group -> {
+                LOGGER.info(String.format("Group: %d copies, %d bytes, hash: %s",
+                        group.copies().size(), group.size(), group.hash().substring(0, Math.min(16, group.hash().length())) + "..."));
+                for (DuplicateCopy copy : group.copies()) {
+                    LOGGER.info(String.format(" - %s: %s", copy.origin(), copy.relativePath()));
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Error while sorting index entries: %s", e.getMessage()));
+            System.exit(2);
+        }
+
+        String sorting = summary.runs() > 0
+                ? String.format("%d runs spilled, %d merge passes", summary.runs(), summary.mergePasses())
+                : "sorted in memory";
+        LOGGER.info(String.format("Found %d duplicate groups across %d indexes: %d files, %d MB reclaimable (%d entries, %s)",
+                summary.groups(), summary.indexes(), summary.duplicateFiles(), summary.wastedBytes() / 1000000, summary.entries(), sorting));
+    }
+
+    private static List<String> positionalArgs(String[] args) {
+        return Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toList();
+    }
+
+    private static String option(String[] args, String name) {
+        String prefix = name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Every value of an option that may be given more than once, in order.
+     */
+    private static List<String> options(String[] args, String name) {
+        String prefix = name + "=";
+        return Arrays.stream(args).filter(arg -> arg.startsWith(prefix)).map(arg -> arg.substring(prefix.length())).toList();
+    }
+
+    private static boolean hasFlag(String[] args, String name) {
+        return Arrays.asList(args).contains(name);
+    }
+
+    private static int intOption(String[] args, String name, int defaultValue) {
+        String value = option(args, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warning(String.format("Invalid value for %s: %s", name, value));
+            System.exit(1);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * A byte count with an optional K, M, G or T suffix (powers of 1024), e.g. {@code 1G}.
+     */
+    private static long sizeOption(String[] args, String name, long defaultValue) {
+        String value = option(args, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        String digits = value.toUpperCase();
+        int shift = switch (digits.isEmpty() ? ' ' : digits.charAt(digits.length() - 1)) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            case 'T' -> 40;
+            default -> 0;
+        };
+        if (shift > 0) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            return Math.multiplyExact(Long.parseLong(digits), 1L << shift);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Invalid value for %s: %s", name, value));
+        }
+    }
+
+    /**
+     * A point in time as epoch millis: an age such as {@code 30m}, {@code 12h} or {@code 7d} counted back
+     * from now, a date ({@code 2024-05-01}, local midnight) or an instant ({@code 2024-05-01T10:00:00Z}).
+     */
+    private static long timeOption(String[] args, String name, long defaultValue) {
+        String value = option(args, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            if (value.matches("\\d+[smhd]")) {
+                long amount = Long.parseLong(value.substring(0, value.length() - 1));
+                Duration age = switch (value.charAt(value.length() - 1)) {
+                    case 's' -> Duration.ofSeconds(amount);
+                    case 'm' -> Duration.ofMinutes(amount);
+                    case 'h' -> Duration.ofHours(amount);
+                    default -> Duration.ofDays(amount);
+                };
+                return Instant.now().minus(age).toEpochMilli();
+            }
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException | ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Invalid value for %s: %s", name, value));
+        }
+    }
+
+    private static FilterRules filterRulesOption(String[] args) {
+        try {
+            return new FilterRules(options(args, "--include"), options(args, "--exclude"),
+                    intOption(args, "--max-depth", FilterRules.UNLIMITED_DEPTH),
+                    sizeOption(args, "--min-size", 0), sizeOption(args, "--max-size", Long.MAX_VALUE));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(e.getMessage());
+            System.exit(1);
+        }
+        return FilterRules.NONE;
+    }
+
+    private static HashAlgorithm algorithmOption(String[] args, HashAlgorithm defaultValue) {
+        String value = option(args, "--algorithm");
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return HashAlgorithm.parse(value);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(e.getMessage());
+            System.exit(1);
+        }
+        return defaultValue;
+    }
+
+    private static IndexFormat formatOption(String[] args, IndexFormat defaultValue) {
+        String value = option(args, "--format");
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return IndexFormat.parse(value);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(e.getMessage());
+            System.exit(1);
+        }
+        return defaultValue;
+    }
+
+    private static String describe(SchedulerReport report) {
+        String concurrency = report.adaptive()
+                ? String.format("concurrency %d -> %d of %d (range %d-%d, %d adjustments)", report.initialConcurrency(),
+                        report.finalConcurrency(), report.workers(), report.minConcurrency(), report.maxConcurrency(), report.adjustments())
+                : String.format("concurrency fixed at %d", report.workers());
+        String bandwidth = report.bandwidth() != ReadSchedule.UNLIMITED_BANDWIDTH
+                ? String.format(", bandwidth %.1f MB/s (readers waited %d ms)", report.bandwidth() / 1e6, report.throttledMillis())
+                : "";
+        return String.format("%s, %d directory batches, peak %.1f of %.1f MB in flight%s", concurrency, report.batches(),
+                report.peakBytesInFlight() / 1e6, report.maxBytesInFlight() / 1e6, bandwidth);
+    }
+
     private static void printUsage() {
         System.out.println("""
-                Usage: filebox [command] [path] [output]
-                Commands: scan
+                Usage: filebox [command] [path] [output] [options]
+                Commands: scan, dedupe, watch, convert, query, diff, sort, client
                 Output: path to output file (default: index.txt)
+                Scan options:
+                  --workers=N   hash files on N threads (default: 1)
+                  --queue=N     max files queued between walker and hashers (default: 1024)
+                  --incremental reuse hashes from the existing index for files whose size and mtime match
+                  --no-hash     record metadata only; dedupe hashes just the files that share a size
+                  --format=v1|v2  index format: v1 text (default) or v2 binary
+                  --algorithm=xxh64|crc32c|sha256  content hash (default: xxh64); dedupe verifies
+                                non-cryptographic matches with SHA-256
+                  --chunks      also split files into content-defined chunks, stored in <output>.chunks
+                                for dedupe --chunks; every file is read, so --incremental reuses nothing
+                  --chunk-size=SIZE  average chunk size, a power of two (default: 16K)
+                  --max-in-flight=SIZE  max bytes of files being read at once; a larger file is read
+                                alone (default: 256M)
+                  --bandwidth=SIZE  cap reads at SIZE bytes per second, e.g. 50M (default: unlimited)
+                  --fixed-workers  always read with all workers instead of tuning the number to
+                                measured throughput
+                Filter options (scan and watch; give watch the rules the index was scanned with):
+                  --exclude=PATTERN   skip matching files and never enter matching directories; repeatable
+                  --include=PATTERN   index only matching files; repeatable
+                                PATTERN is a glob (matched against names when it has no '/', e.g.
+                                node_modules or *.tmp, else against relative paths) or regex:EXPR
+                  --max-depth=N       files at most N levels below the root (1 = the root's own files)
+                  --min-size=SIZE --max-size=SIZE   size bounds, e.g. 10M or 1G
+                Dedupe trusts the hashes stored in the index, so a hashed index needs no file access. It reads
+                  files below the index's root only for entries scanned with --no-hash, and with --verify.
+                  Files it cannot read are left out of the groups and counted per stage.
+                Dedupe options:
+                  --verify        re-read xxh64 or crc32c matches and confirm them with SHA-256
+                  --chunks        report bytes shared between files at the chunk level instead of
+                                  whole-file copies; needs an index scanned with --chunks
+                  --chunk-table=N max chunk digests held in memory; beyond that they are sampled (default: 1048576)
+                  --top=N         files with the most shared bytes to list (default: 20)
+                Dedupe over several indexes (dedupe <index> <index>...), e.g. one per host:
+                  matches on size and stored hash only, tagging each copy with its index's root
+                  --sort-memory=SIZE  entries held in memory before a sorted run is spilled (default: 64M)
+                  --spill-dir=DIR     where sorted runs are spilled (default: the system temp directory)
+                Watch options:
+                  --compact-every=N     fold the change journal into the index after N records (default: 10000)
+                  --compact-interval=S  fold the change journal into the index every S seconds (default: 300)
+                  --quiet-ms=MS         wait until a path has had no events for MS before hashing it (default: 500)
+                  --workers=N           hash changes on N threads; a path always goes to the same one (default: 4)
+                  --queue=N             max events queued per worker, and results queued for the writer (default: 4096)
+                  --backpressure=block|resync  when a worker's queue is full, wait (default) or drop the
+                                        event and resync its directory from disk
+                  --socket=PATH         also answer requests from the live index on a Unix domain socket
+                Convert: filebox convert <input> <output> [--format=v1|v2] (defaults to the other format)
+                Query: filebox query [index] [filters]; prints matching index lines to stdout
+                  --min-size=SIZE --max-size=SIZE   size bounds, e.g. 10M or 1G
+                  --newer-than=T --older-than=T     mtime bounds: an age (30m, 12h, 7d), a date or an instant
+                  --ext=EXT                         extension, without the dot
+                  --glob=GLOB                       relative path glob, e.g. '**/*.log' or 'src/*'
+                  --hash=HEX                        hash or hash prefix
+                  --sort=path|size|mtime [--desc]   output order (default: path)
+                  --limit=N                         stop after N matches
+                Diff: filebox diff <old index> <new index>; prints one line per change to stdout:
+                  A path / D path / M path / R old-path new-path (same content under a new path)
+                Sort: filebox sort <index> [output]; rewrites an index from before indexes were kept in
+                  path order (defaults to rewriting it in place)
+                Client: filebox client <socket> <request>; asks a watch --socket daemon and prints the answer:
+                  lookup PATH   index line of one file
+                  hash HEX      index lines of files whose hash starts with HEX
+                  dedupe        duplicate groups: hash, size and paths, tab separated; from the index alone
+                  dedupe verify the same, re-reading the candidate files to confirm every match
+                  stats         watch metrics
                 Help: filebox -h or --help or filebox help
                 """);
     }
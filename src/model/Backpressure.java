@@ -0,0 +1,24 @@
+package model;
+
+/**
+ * What the watch event loop does when the queue of the worker a path belongs to is full.
+ */
+public enum Backpressure {
+    /**
+     * Wait for room. Nothing is lost in the pipeline, but the kernel queue fills up meanwhile and may
+     * overflow, which costs a resync of the directory.
+     */
+    BLOCK,
+    /**
+     * Drop the event and resync its directory from disk later, so the event loop never stalls.
+     */
+    RESYNC;
+
+    public static Backpressure parse(String value) {
+        return switch (value.toLowerCase()) {
+            case "block" -> BLOCK;
+            case "resync", "drop" -> RESYNC;
+            default -> throw new IllegalArgumentException("Unknown backpressure mode: " + value);
+        };
+    }
+}
@@ -0,0 +1,5 @@
+package model;
+
+public enum ChangeType {
+    ADDED, REMOVED, MODIFIED, MOVED
+}
@@ -0,0 +1,12 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Chunk-level savings of an index. {@code duplicateBytes} is what storing every distinct chunk once
+ * would save; when {@code sampleRate} is above 1 only one chunk digest in that many was counted and the
+ * byte figures are estimates.
+ */
+public record ChunkReport(long files, long chunks, long totalBytes, long duplicateBytes, long sampleRate,
+                          List<SharedFile> topFiles) {
+}
@@ -0,0 +1,10 @@
+package model;
+
+/**
+ * Totals of a dedupe over several indexes. {@code unhashedEntries} were left out because their index
+ * was scanned with {@code --no-hash}. {@code runs} sorted runs were spilled to disk, 0 when every entry
+ * fit in memory, and merged in {@code mergePasses} passes.
+ */
+public record CrossDedupeSummary(int indexes, long entries, long unhashedEntries, int runs, int mergePasses,
+                                 long groups, long duplicateFiles, long wastedBytes) {
+}
@@ -0,0 +1,9 @@
+package model;
+
+import java.util.List;
+
+public record CrossDuplicateGroup(String hash, long size, List<DuplicateCopy> copies) {
+    public long wastedBytes() {
+        return size * (copies.size() - 1);
+    }
+}
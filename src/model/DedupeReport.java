@@ -0,0 +1,6 @@
+package model;
+
+import java.util.List;
+
+public record DedupeReport(List<DuplicateGroup> groups, List<DedupeStage> stages) {
+}
@@ -0,0 +1,15 @@
+package model;
+
+/**
+ * {@code unreadable} of the eliminated candidates were not ruled out by their content but dropped
+ * because their file could not be read to compute the stage's key.
+ */
+public record DedupeStage(String name, long candidatesIn, long eliminated, long unreadable) {
+    public DedupeStage(String name, long candidatesIn, long eliminated) {
+        this(name, candidatesIn, eliminated, 0);
+    }
+
+    public long candidatesOut() {
+        return candidatesIn - eliminated;
+    }
+}
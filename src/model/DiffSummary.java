@@ -0,0 +1,7 @@
+package model;
+
+public record DiffSummary(long unchanged, long added, long removed, long modified, long moved) {
+    public long changes() {
+        return added + removed + modified + moved;
+    }
+}
@@ -0,0 +1,11 @@
+package model;
+
+import java.nio.file.Path;
+
+/**
+ * One copy in a {@link CrossDuplicateGroup}: the file's path relative to the root of the index it was
+ * found in, and {@code origin}, which names that index (its root, prefixed with the index file name when
+ * two indexes share a root).
+ */
+public record DuplicateCopy(String origin, Path relativePath) {
+}
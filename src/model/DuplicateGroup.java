@@ -0,0 +1,9 @@
+package model;
+
+import java.util.List;
+
+public record DuplicateGroup(String sha256, long size, List<FileEntry> files) {
+    public long wastedBytes() {
+        return size * (files.size() - 1);
+    }
+}
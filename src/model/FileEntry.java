@@ -1,6 +1,21 @@
 package model;
 
 import java.nio.file.Path;
+import java.util.Comparator;
 
 public record FileEntry(Path relativePath, long size, long lastModifiedTime, String sha256) {
+    /**
+     * Written in place of the hash when the scan ran with hashing disabled.
+     */
+    public static final String NO_HASH = "-";
+
+    /**
+     * The order entries are stored in: by relative path string, which is also the order a sorted walk
+     * produces. Two path-sorted indexes can be compared in a single merge pass.
+     */
+    public static final Comparator<FileEntry> BY_PATH = Comparator.comparing(entry -> entry.relativePath().toString());
+
+    public boolean hasHash() {
+        return sha256 != null && !NO_HASH.equals(sha256);
+    }
 }
@@ -0,0 +1,54 @@
+package model;
+
+import java.nio.file.FileSystems;
+import java.util.List;
+
+/**
+ * Which files a scan indexes and a watch follows. Patterns use {@link java.nio.file.PathMatcher} syntax:
+ * {@code glob:...}, {@code regex:...}, or a bare glob. A glob without a {@code /} is matched against the
+ * file or directory name at any depth ({@code node_modules}, {@code *.tmp}); anything else against the
+ * path relative to the root, with {@code /} separators. An excluded directory is not entered at all.
+ * When there are include patterns, a file must match one of them; they never prune directories.
+ * {@code maxDepth} counts the files directly in the root as depth 1.
+ */
+public record FilterRules(List<String> includes, List<String> excludes, int maxDepth, long minSize, long maxSize) {
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+    public static final FilterRules NONE = new FilterRules(List.of(), List.of(), UNLIMITED_DEPTH, 0, Long.MAX_VALUE);
+
+    public FilterRules {
+        includes = List.copyOf(includes);
+        excludes = List.copyOf(excludes);
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be >= 1, got " + maxDepth);
+        }
+        if (minSize < 0 || maxSize < minSize) {
+            throw new IllegalArgumentException(String.format("Invalid size range: %d to %d", minSize, maxSize));
+        }
+        // Fail on a malformed pattern now rather than halfway through a walk.
+        for (String pattern : includes) {
+            FileSystems.getDefault().getPathMatcher(syntaxAndPattern(pattern));
+        }
+        for (String pattern : excludes) {
+            FileSystems.getDefault().getPathMatcher(syntaxAndPattern(pattern));
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.equals(NONE);
+    }
+
+    /**
+     * The pattern with an explicit {@code glob:} prefix when it has no syntax of its own.
+     */
+    public static String syntaxAndPattern(String pattern) {
+        return pattern.startsWith("glob:") || pattern.startsWith("regex:") ? pattern : "glob:" + pattern;
+    }
+
+    /**
+     * True for a glob without a {@code /}, which is matched against names rather than relative paths.
+     */
+    public static boolean matchesName(String pattern) {
+        String syntaxAndPattern = syntaxAndPattern(pattern);
+        return syntaxAndPattern.startsWith("glob:") && !syntaxAndPattern.contains("/");
+    }
+}
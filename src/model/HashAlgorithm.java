@@ -0,0 +1,78 @@
+package model;
+
+/**
+ * Content hash recorded in an index. Every digest in one index comes from the same algorithm, and the
+ * index header says which one, so digests from different algorithms are never compared.
+ */
+public enum HashAlgorithm {
+    /**
+     * Cryptographic; what every index written before the header recorded an algorithm contains.
+     */
+    SHA256("sha256", 0, 32, true),
+    /**
+     * 32-bit checksum with hardware support on most CPUs. Fine for change detection, too short for dedupe alone.
+     */
+    CRC32C("crc32c", 1, 4, false),
+    /**
+     * 64-bit xxHash, many times faster than SHA-256 in pure Java.
+     */
+    XXH64("xxh64", 2, 8, false);
+
+    public static final HashAlgorithm DEFAULT = XXH64;
+
+    private final String label;
+    private final int id;
+    private final int digestLength;
+    private final boolean cryptographic;
+
+    HashAlgorithm(String label, int id, int digestLength, boolean cryptographic) {
+        this.label = label;
+        this.id = id;
+        this.digestLength = digestLength;
+        this.cryptographic = cryptographic;
+    }
+
+    /**
+     * Name written to and read from index headers.
+     */
+    public String label() {
+        return label;
+    }
+
+    /**
+     * Number stored in the v2 header; 0 is what older v2 files have there.
+     */
+    public int id() {
+        return id;
+    }
+
+    public int digestLength() {
+        return digestLength;
+    }
+
+    public int hexLength() {
+        return digestLength * 2;
+    }
+
+    public boolean cryptographic() {
+        return cryptographic;
+    }
+
+    public static HashAlgorithm parse(String value) {
+        return switch (value.toLowerCase().replace("-", "")) {
+            case "sha256" -> SHA256;
+            case "crc32c", "crc" -> CRC32C;
+            case "xxh64", "xxhash", "xxhash64" -> XXH64;
+            default -> throw new IllegalArgumentException("Unknown hash algorithm: " + value);
+        };
+    }
+
+    public static HashAlgorithm fromId(int id) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm id: " + id);
+    }
+}
@@ -0,0 +1,14 @@
+package model;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of hashing one file. A failure describes the file and the reason instead of aborting the caller.
+ */
+public sealed interface HashResult {
+    record Success(String hex) implements HashResult {
+    }
+
+    record Failure(Path path, String reason) implements HashResult {
+    }
+}
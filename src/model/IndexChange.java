@@ -0,0 +1,9 @@
+package model;
+
+/**
+ * One difference between two indexes. {@code before} is null for {@link ChangeType#ADDED} and
+ * {@code after} is null for {@link ChangeType#REMOVED}; a {@link ChangeType#MOVED} file has the same
+ * content under a different path.
+ */
+public record IndexChange(ChangeType type, FileEntry before, FileEntry after) {
+}
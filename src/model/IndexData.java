@@ -2,5 +2,8 @@ package model;
 
 import java.util.List;
 
-public record IndexData(String path, List<FileEntry> entries) {
+/**
+ * A loaded index. Every digest in {@code entries} was produced by {@code hashAlgorithm}.
+ */
+public record IndexData(String path, List<FileEntry> entries, HashAlgorithm hashAlgorithm) {
 }
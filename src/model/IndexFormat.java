@@ -0,0 +1,20 @@
+package model;
+
+public enum IndexFormat {
+    /**
+     * Tab-separated text with a commented header and summary footer.
+     */
+    V1,
+    /**
+     * Binary header, fixed-width records with raw digests and a deduplicated string table.
+     */
+    V2;
+
+    public static IndexFormat parse(String value) {
+        return switch (value.toLowerCase()) {
+            case "v1", "1", "tsv" -> V1;
+            case "v2", "2", "binary" -> V2;
+            default -> throw new IllegalArgumentException("Unknown index format: " + value);
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package model;
+
+/**
+ * Filters of the {@code query} command; every bound is inclusive. A null extension, glob or hash prefix
+ * matches everything, and the extension is compared without its dot and ignoring case.
+ */
+public record Query(long minSize, long maxSize, long modifiedFrom, long modifiedTo,
+                    String extension, String glob, String hashPrefix,
+                    QuerySort sort, boolean descending, long limit) {
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+
+    public Query {
+        if (minSize > maxSize) {
+            throw new IllegalArgumentException("minSize " + minSize + " is above maxSize " + maxSize);
+        }
+        if (modifiedFrom > modifiedTo) {
+            throw new IllegalArgumentException("modifiedFrom " + modifiedFrom + " is after modifiedTo " + modifiedTo);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be >= 0, got " + limit);
+        }
+        if (extension != null) {
+            extension = extension.startsWith(".") ? extension.substring(1).toLowerCase() : extension.toLowerCase();
+        }
+        if (hashPrefix != null) {
+            hashPrefix = hashPrefix.toLowerCase();
+        }
+    }
+
+    public boolean hasSizeRange() {
+        return minSize > 0 || maxSize < Long.MAX_VALUE;
+    }
+
+    public boolean hasMtimeRange() {
+        return modifiedFrom > Long.MIN_VALUE || modifiedTo < Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,14 @@
+package model;
+
+public enum QuerySort {
+    PATH, SIZE, MTIME;
+
+    public static QuerySort parse(String value) {
+        return switch (value.toLowerCase()) {
+            case "path", "name" -> PATH;
+            case "size" -> SIZE;
+            case "mtime", "modified", "time" -> MTIME;
+            default -> throw new IllegalArgumentException("Unknown sort key: " + value);
+        };
+    }
+}
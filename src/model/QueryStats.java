@@ -0,0 +1,8 @@
+package model;
+
+/**
+ * How a query was answered: the index whose range was walked, how many entries that range held and
+ * how many of them were written out.
+ */
+public record QueryStats(String index, long candidates, long matched) {
+}
@@ -0,0 +1,26 @@
+package model;
+
+/**
+ * How a concurrent scan paces its reads. At most {@code maxBytesInFlight} bytes of files are being read
+ * at once (a larger file runs alone); {@code bandwidth} caps read throughput in bytes per second, or is
+ * {@link #UNLIMITED_BANDWIDTH}; {@code adaptive} lets the number of reading workers follow measured
+ * throughput instead of always using all of them.
+ */
+public record ReadSchedule(long maxBytesInFlight, long bandwidth, boolean adaptive) {
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 256L << 20;
+    public static final long UNLIMITED_BANDWIDTH = 0;
+    public static final ReadSchedule DEFAULT = new ReadSchedule(DEFAULT_MAX_BYTES_IN_FLIGHT, UNLIMITED_BANDWIDTH, true);
+
+    public ReadSchedule {
+        if (maxBytesInFlight < 1) {
+            throw new IllegalArgumentException("maxBytesInFlight must be >= 1, got " + maxBytesInFlight);
+        }
+        if (bandwidth < 0) {
+            throw new IllegalArgumentException("bandwidth must be >= 0, got " + bandwidth);
+        }
+    }
+
+    public boolean throttled() {
+        return bandwidth != UNLIMITED_BANDWIDTH;
+    }
+}
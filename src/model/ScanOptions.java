@@ -0,0 +1,41 @@
+package model;
+
+public record ScanOptions(int workers, int queueCapacity, boolean incremental, boolean hashing, IndexFormat format,
+                          HashAlgorithm hashAlgorithm, FilterRules filterRules, int chunkSize, ReadSchedule readSchedule) {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int NO_CHUNKING = 0;
+
+    public ScanOptions {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be >= 1, got " + workers);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be >= 1, got " + queueCapacity);
+        }
+        if (chunkSize != NO_CHUNKING && (chunkSize < 256 || chunkSize > (1 << 24) || Integer.bitCount(chunkSize) != 1)) {
+            throw new IllegalArgumentException("chunkSize must be a power of two from 256 bytes to 16 MB, got " + chunkSize);
+        }
+        if (chunkSize != NO_CHUNKING && !hashing) {
+            throw new IllegalArgumentException("Chunking reads every file, so it cannot be combined with --no-hash");
+        }
+    }
+
+    public static ScanOptions defaults() {
+        return new ScanOptions(1, DEFAULT_QUEUE_CAPACITY, false, true, IndexFormat.V1, HashAlgorithm.DEFAULT, FilterRules.NONE, NO_CHUNKING, ReadSchedule.DEFAULT);
+    }
+
+    /**
+     * Whether files are read by workers under the read scheduler rather than on the walking thread. A
+     * bandwidth limit always goes through the scheduler, even with a single worker.
+     */
+    public boolean concurrent() {
+        return workers > 1 || readSchedule.throttled();
+    }
+
+    /**
+     * Whether files are also split into content-defined chunks of about {@code chunkSize} bytes.
+     */
+    public boolean chunking() {
+        return chunkSize != NO_CHUNKING;
+    }
+}
@@ -1,4 +1,29 @@
 package model;
 
-public record ScanSummary(String rootPath, long totalBytes, long totalFiles, long durationMillis) {
+/**
+ * {@code scheduler} is what the read scheduler did, or null when the scan read files on the walking thread.
+ */
+public record ScanSummary(String rootPath, long totalBytes, long totalFiles, long durationMillis,
+                          long reusedFiles, long rehashedFiles, long addedFiles, long removedFiles,
+                          SchedulerReport scheduler) {
+
+    public ScanSummary(String rootPath, long totalBytes, long totalFiles, long durationMillis) {
+        this(rootPath, totalBytes, totalFiles, durationMillis, 0, 0, 0, 0);
+    }
+
+    public ScanSummary(String rootPath, long totalBytes, long totalFiles, long durationMillis,
+                       long reusedFiles, long rehashedFiles, long addedFiles, long removedFiles) {
+        this(rootPath, totalBytes, totalFiles, durationMillis, reusedFiles, rehashedFiles, addedFiles, removedFiles, null);
+    }
+
+    public ScanSummary withScheduler(SchedulerReport scheduler) {
+        return new ScanSummary(rootPath, totalBytes, totalFiles, durationMillis, reusedFiles, rehashedFiles, addedFiles, removedFiles, scheduler);
+    }
+
+    /**
+     * True when the counts describe a rescan against a previous index rather than a full scan.
+     */
+    public boolean hasChangeCounts() {
+        return reusedFiles + rehashedFiles + addedFiles + removedFiles > 0;
+    }
 }
@@ -0,0 +1,14 @@
+package model;
+
+/**
+ * What the read scheduler of a scan did. Files went out in {@code batches} (runs of one directory,
+ * smallest first); {@code peakBytesInFlight} is the most that was being read at once under the
+ * {@code maxBytesInFlight} cap. Concurrency started at {@code initialConcurrency} of {@code workers}
+ * and was changed {@code adjustments} times, staying within {@code minConcurrency} and
+ * {@code maxConcurrency}. {@code throttledMillis} adds up the time readers waited for the bandwidth
+ * limit, summed over workers.
+ */
+public record SchedulerReport(int workers, long batches, long maxBytesInFlight, long peakBytesInFlight,
+                              long bandwidth, long throttledMillis, boolean adaptive, int initialConcurrency,
+                              int minConcurrency, int maxConcurrency, int finalConcurrency, long adjustments) {
+}
@@ -0,0 +1,10 @@
+package model;
+
+import java.nio.file.Path;
+
+/**
+ * A file that shares content with other indexed files at the chunk level. {@code sharedMostWith} is the
+ * file it shares the most chunks with, or null when its shared chunks only repeat inside itself.
+ */
+public record SharedFile(Path relativePath, long size, long sharedBytes, Path sharedMostWith) {
+}
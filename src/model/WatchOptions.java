@@ -0,0 +1,38 @@
+package model;
+
+/**
+ * Watch mode settings. {@code workers} hash settled changes in parallel, each owning the paths that hash
+ * to it; {@code queueCapacity} bounds the event queue of every worker and the queue of results waiting
+ * for the index writer. {@code filterRules} should be the ones the index was scanned with.
+ */
+public record WatchOptions(long compactThreshold, long compactIntervalSeconds, long quietMillis, int workers,
+                           int queueCapacity, Backpressure backpressure, FilterRules filterRules) {
+    public static final long DEFAULT_COMPACT_THRESHOLD = 10_000;
+    public static final long DEFAULT_COMPACT_INTERVAL_SECONDS = 300;
+    public static final long DEFAULT_QUIET_MILLIS = 500;
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    public WatchOptions {
+        if (compactThreshold < 1) {
+            throw new IllegalArgumentException("compactThreshold must be >= 1, got " + compactThreshold);
+        }
+        if (compactIntervalSeconds < 1) {
+            throw new IllegalArgumentException("compactIntervalSeconds must be >= 1, got " + compactIntervalSeconds);
+        }
+        if (quietMillis < 0) {
+            throw new IllegalArgumentException("quietMillis must be >= 0, got " + quietMillis);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be >= 1, got " + workers);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be >= 1, got " + queueCapacity);
+        }
+    }
+
+    public static WatchOptions defaults() {
+        return new WatchOptions(DEFAULT_COMPACT_THRESHOLD, DEFAULT_COMPACT_INTERVAL_SECONDS, DEFAULT_QUIET_MILLIS,
+                DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY, Backpressure.BLOCK, FilterRules.NONE);
+    }
+}
@@ -0,0 +1,38 @@
+package services;
+
+/**
+ * Layout of the v2 index. All numbers are big-endian.
+ * <pre>
+ * header   (HEADER_SIZE bytes, written last)
+ *   magic "FBX2", int version, int recordSize, int digestLength,
+ *   long entryCount, long recordsOffset, long stringsOffset, long stringOffsetsOffset, int stringCount,
+ *   int rootStringId, long totalBytes, long durationMillis, long generatedAtMillis, int hashAlgorithmId,
+ *   int headerFlags
+ * records  (entryCount x recordSize bytes)
+ *   int dirId, int nameId, long size, long mtimeMillis, int flags, byte[digestLength] digest
+ * strings  (stringCount x (int length, UTF-8 bytes))
+ * offsets  (stringCount x long, absolute file offset of each string)
+ * </pre>
+ * Directory and file names are stored once in the string table and records point at them by id,
+ * so a record has a fixed width and can be read by position without parsing anything before it.
+ * The digest length follows the hash algorithm; files from before the algorithm id was added have
+ * zero there, which is the id of SHA-256, and no header flags.
+ */
+final class BinaryIndexFormat {
+    static final byte[] MAGIC = {'F', 'B', 'X', '2'};
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 96;
+    static final int DIGEST_OFFSET = 4 + 4 + 8 + 8 + 4;
+
+    static final int FLAG_HAS_HASH = 1;
+
+    // Header flag: records are in FileEntry.BY_PATH order.
+    static final int HEADER_FLAG_SORTED_BY_PATH = 1;
+
+    private BinaryIndexFormat() {
+    }
+
+    static int recordSize(int digestLength) {
+        return DIGEST_OFFSET + digestLength;
+    }
+}
@@ -0,0 +1,235 @@
+package services;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static services.BinaryIndexFormat.*;
+
+/**
+ * Memory-mapped view of a v2 index. Opening it only reads the header; records and strings are decoded
+ * when asked for, so callers that need a few fields of many entries never build a {@link FileEntry}.
+ */
+public class BinaryIndexReader implements Iterable<FileEntry> {
+    // Mappings overlap by more than any record or string, so a read that starts in a segment ends in it.
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long SEGMENT_OVERLAP = 1L << 20;
+
+    private final MappedByteBuffer[] segments;
+    private final int recordSize;
+    private final int digestLength;
+    private final long entryCount;
+    private final long recordsOffset;
+    private final long stringOffsetsOffset;
+    private final int stringCount;
+    private final String rootPath;
+    private final long totalBytes;
+    private final long durationMillis;
+    private final long generatedAtMillis;
+    private final HashAlgorithm hashAlgorithm;
+    private final boolean sortedByPath;
+
+    private BinaryIndexReader(MappedByteBuffer[] segments) throws IOException {
+        this.segments = segments;
+
+        byte[] magic = new byte[MAGIC.length];
+        segments[0].get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a FileBox v2 index");
+        }
+        int version = segments[0].getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported index version " + version);
+        }
+
+        ByteBuffer header = segments[0].slice(8, HEADER_SIZE - 8);
+        this.recordSize = header.getInt();
+        this.digestLength = header.getInt();
+        this.entryCount = header.getLong();
+        this.recordsOffset = header.getLong();
+        header.getLong(); // strings start right after the records; offsets below point into them directly
+        this.stringOffsetsOffset = header.getLong();
+        this.stringCount = header.getInt();
+        int rootStringId = header.getInt();
+        this.totalBytes = header.getLong();
+        this.durationMillis = header.getLong();
+        this.generatedAtMillis = header.getLong();
+        try {
+            this.hashAlgorithm = HashAlgorithm.fromId(header.getInt());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        this.sortedByPath = (header.getInt() & HEADER_FLAG_SORTED_BY_PATH) != 0;
+        if (digestLength != hashAlgorithm.digestLength() || recordSize != recordSize(digestLength)) {
+            throw new IOException(String.format("Corrupt index: %d-byte digests in %d-byte records for %s",
+                    digestLength, recordSize, hashAlgorithm.label()));
+        }
+        this.rootPath = string(rootStringId);
+    }
+
+    public static BinaryIndexReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Index file is truncated: " + file);
+            }
+            int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * SEGMENT_SIZE;
+                long length = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+            // The mappings stay valid after the channel is closed.
+            return new BinaryIndexReader(segments);
+        }
+    }
+
+    /**
+     * True when the file starts with the v2 magic bytes.
+     */
+    public static boolean isBinaryIndex(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) != -1) {
+                // keep reading until the magic is complete or the file ends
+            }
+            return Arrays.equals(magic.array(), MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public String rootPath() {
+        return rootPath;
+    }
+
+    public long entryCount() {
+        return entryCount;
+    }
+
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    public long durationMillis() {
+        return durationMillis;
+    }
+
+    public long generatedAtMillis() {
+        return generatedAtMillis;
+    }
+
+    public HashAlgorithm hashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public boolean sortedByPath() {
+        return sortedByPath;
+    }
+
+    public long size(long index) {
+        return getLong(recordOffset(index) + 8);
+    }
+
+    public long lastModifiedTime(long index) {
+        return getLong(recordOffset(index) + 16);
+    }
+
+    public boolean hasHash(long index) {
+        return (getInt(recordOffset(index) + 24) & FLAG_HAS_HASH) != 0;
+    }
+
+    /**
+     * Copies the raw digest of an entry into {@code target}, which must hold at least {@code digestLength} bytes.
+     */
+    public void digest(long index, byte[] target) {
+        long offset = recordOffset(index) + DIGEST_OFFSET;
+        segment(offset).get(local(offset), target, 0, digestLength);
+    }
+
+    public String sha256(long index) {
+        if (!hasHash(index)) {
+            return FileEntry.NO_HASH;
+        }
+        byte[] digest = new byte[digestLength];
+        digest(index, digest);
+        return HexFormat.of().formatHex(digest);
+    }
+
+    public Path relativePath(long index) {
+        long offset = recordOffset(index);
+        String dir = string(getInt(offset));
+        String name = string(getInt(offset + 4));
+        return dir.isEmpty() ? Path.of(name) : Path.of(dir, name);
+    }
+
+    public FileEntry entry(long index) {
+        return new FileEntry(relativePath(index), size(index), lastModifiedTime(index), sha256(index));
+    }
+
+    @Override
+    public Iterator<FileEntry> iterator() {
+        return new Iterator<>() {
+            private long next;
+
+            @Override
+            public boolean hasNext() {
+                return next < entryCount;
+            }
+
+            @Override
+            public FileEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return entry(next++);
+            }
+        };
+    }
+
+    private long recordOffset(long index) {
+        if (index < 0 || index >= entryCount) {
+            throw new IndexOutOfBoundsException("Entry " + index + " of " + entryCount);
+        }
+        return recordsOffset + index * recordSize;
+    }
+
+    private String string(int id) {
+        if (id < 0 || id >= stringCount) {
+            throw new IllegalStateException("Corrupt index: string id " + id + " of " + stringCount);
+        }
+        long offset = getLong(stringOffsetsOffset + (long) id * 8);
+        int length = getInt(offset);
+        byte[] bytes = new byte[length];
+        segment(offset + 4).get(local(offset + 4), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private MappedByteBuffer segment(long offset) {
+        return segments[(int) (offset / SEGMENT_SIZE)];
+    }
+
+    private static int local(long offset) {
+        return (int) (offset % SEGMENT_SIZE);
+    }
+
+    private int getInt(long offset) {
+        return segment(offset).getInt(local(offset));
+    }
+
+    private long getLong(long offset) {
+        return segment(offset).getLong(local(offset));
+    }
+}
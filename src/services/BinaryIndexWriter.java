@@ -0,0 +1,160 @@
+package services;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+import model.ScanSummary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static services.BinaryIndexFormat.*;
+
+/**
+ * Writes a v2 index one entry at a time. Records go straight to disk; only the string table
+ * (distinct directory and file names) is kept in memory until {@link #finish(ScanSummary)}.
+ */
+public class BinaryIndexWriter implements IndexWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final HashAlgorithm hashAlgorithm;
+    private final int recordSize;
+    private final byte[] emptyDigest;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final int rootStringId;
+    private long entryCount;
+
+    public BinaryIndexWriter(Path file, String rootPath, HashAlgorithm hashAlgorithm) throws IOException {
+        this.hashAlgorithm = hashAlgorithm;
+        this.recordSize = recordSize(hashAlgorithm.digestLength());
+        this.emptyDigest = new byte[hashAlgorithm.digestLength()];
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.channel.position(HEADER_SIZE);
+        this.rootStringId = stringId(rootPath);
+    }
+
+    @Override
+    public void write(FileEntry entry) throws IOException {
+        Path parent = entry.relativePath().getParent();
+        int dirId = stringId(parent == null ? "" : parent.toString());
+        int nameId = stringId(entry.relativePath().getFileName().toString());
+
+        ensureRemaining(recordSize);
+        buffer.putInt(dirId);
+        buffer.putInt(nameId);
+        buffer.putLong(entry.size());
+        buffer.putLong(entry.lastModifiedTime());
+
+        byte[] digest = digestBytes(entry);
+        buffer.putInt(digest != null ? FLAG_HAS_HASH : 0);
+        buffer.put(digest != null ? digest : emptyDigest);
+        entryCount++;
+    }
+
+    /**
+     * Appends the string table and writes the header. The file is not a valid index before this returns.
+     */
+    @Override
+    public void finish(ScanSummary summary) throws IOException {
+        long recordsEnd = position();
+
+        long[] offsets = new long[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            offsets[i] = position();
+            ensureRemaining(4);
+            buffer.putInt(bytes.length);
+            for (int written = 0; written < bytes.length; ) {
+                ensureRemaining(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, chunk);
+                written += chunk;
+            }
+        }
+
+        long offsetsStart = position();
+        for (long offset : offsets) {
+            ensureRemaining(8);
+            buffer.putLong(offset);
+        }
+        flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(recordSize);
+        header.putInt(hashAlgorithm.digestLength());
+        header.putLong(entryCount);
+        header.putLong(HEADER_SIZE);
+        header.putLong(recordsEnd);
+        header.putLong(offsetsStart);
+        header.putInt(strings.size());
+        header.putInt(rootStringId);
+        header.putLong(summary.totalBytes());
+        header.putLong(summary.durationMillis());
+        header.putLong(Instant.now().toEpochMilli());
+        header.putInt(hashAlgorithm.id());
+        header.putInt(HEADER_FLAG_SORTED_BY_PATH);
+        header.clear();
+        long headerPosition = 0;
+        while (header.hasRemaining()) {
+            headerPosition += channel.write(header, headerPosition);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int stringId(String value) {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    private byte[] digestBytes(FileEntry entry) {
+        if (!entry.hasHash() || entry.sha256().length() != hashAlgorithm.hexLength()) {
+            return null;
+        }
+        try {
+            return HexFormat.of().parseHex(entry.sha256());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private long position() throws IOException {
+        return channel.position() + buffer.position();
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,277 @@
+package services;
+
+import model.ChunkReport;
+import model.SharedFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Estimates how much of an index is duplicated below the file level, from the chunk side file written
+ * by {@code scan --chunks}. Two passes over that file:
+ * <ol>
+ *     <li>count every chunk digest in a table of at most {@code tableCapacity} entries,</li>
+ *     <li>for each file, add up the chunks that occur more than once and note which other file shares
+ *     most of them, keeping the {@code top} files with the most shared bytes.</li>
+ * </ol>
+ * Files are known by their position in the chunk file; a third pass, which stops as soon as it can,
+ * looks up the paths of the partners the top files name. Nothing is kept per file beyond the top list.
+ * The table does not grow past its capacity. When it fills, only digests whose low bits are zero are kept
+ * from then on (one in 2, then one in 4, ...) and the entries failing the new mask are dropped. Digests
+ * are uniform, so the kept chunks are a fair sample of all of them and the byte figures are scaled up
+ * from it; below the capacity every chunk is counted and the figures are exact.
+ */
+public class ChunkDedupeService {
+    public static final int DEFAULT_TABLE_CAPACITY = 1 << 20;
+
+    private static final Logger LOGGER = Logger.getLogger(ChunkDedupeService.class.getName());
+
+    private final int tableCapacity;
+
+    // Open addressing on the digest; a count of zero marks an empty bucket.
+    private long[] keys;
+    private int[] lengths;
+    private int[] counts;
+    private int[] firstFile;
+    // Another file the chunk was seen in, plus one; zero while only firstFile has it.
+    private int[] otherFile;
+    private int size;
+    private int shift;
+
+    // A top file whose partner is still known by position only; -1 for none.
+    private record Candidate(Path relativePath, long size, long sharedBytes, int partner) {
+    }
+
+    public ChunkDedupeService(int tableCapacity) {
+        if (tableCapacity < 16) {
+            throw new IllegalArgumentException("tableCapacity must be >= 16, got " + tableCapacity);
+        }
+        this.tableCapacity = tableCapacity;
+    }
+
+    public ChunkReport report(Path indexFile, int top) throws IOException {
+        allocate(tableFor(Math.min(tableCapacity, 1 << 16)));
+        size = 0;
+        shift = 0;
+
+        int files = 0;
+        long chunks = 0;
+        long totalBytes = 0;
+        try (ChunkIndexReader reader = new ChunkIndexReader(indexFile)) {
+            for (ChunkIndexReader.FileChunks file; (file = reader.next()) != null; ) {
+                int fileId = files++;
+                for (int chunk = 0; chunk < file.count(); chunk++) {
+                    if (sampled(file.digests()[chunk])) {
+                        add(file.digests()[chunk], file.lengths()[chunk], fileId);
+                    }
+                    totalBytes += file.lengths()[chunk];
+                }
+                chunks += file.count();
+            }
+        }
+
+        long sampledBytes = 0;
+        long sampledUniqueBytes = 0;
+        for (int bucket = 0; bucket < keys.length; bucket++) {
+            if (counts[bucket] > 0) {
+                sampledBytes += (long) lengths[bucket] * counts[bucket];
+                sampledUniqueBytes += lengths[bucket];
+            }
+        }
+        long duplicateBytes = scale(totalBytes, sampledBytes - sampledUniqueBytes, sampledBytes);
+        LOGGER.fine(String.format("Counted %d distinct chunk digests, 1 in %d sampled", size, 1L << shift));
+
+        PriorityQueue<Candidate> largest = new PriorityQueue<>(Comparator.comparingLong(Candidate::sharedBytes));
+        if (top > 0) {
+            try (ChunkIndexReader reader = new ChunkIndexReader(indexFile)) {
+                int fileId = 0;
+                for (ChunkIndexReader.FileChunks file; (file = reader.next()) != null; fileId++) {
+                    Candidate shared = sharedFile(file, fileId);
+                    if (shared != null) {
+                        largest.add(shared);
+                        if (largest.size() > top) {
+                            largest.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<Integer, Path> partners = partnerPaths(indexFile, largest);
+        List<SharedFile> topFiles = new ArrayList<>();
+        for (Candidate candidate : largest) {
+            topFiles.add(new SharedFile(candidate.relativePath(), candidate.size(), candidate.sharedBytes(), partners.get(candidate.partner())));
+        }
+        topFiles.sort(Comparator.comparingLong(SharedFile::sharedBytes).reversed().thenComparing(SharedFile::relativePath));
+        return new ChunkReport(files, chunks, totalBytes, duplicateBytes, 1L << shift, topFiles);
+    }
+
+    /**
+     * Paths of the files the candidates name as partners, read up to the last one needed.
+     */
+    private static Map<Integer, Path> partnerPaths(Path indexFile, Collection<Candidate> candidates) throws IOException {
+        Set<Integer> wanted = new HashSet<>();
+        for (Candidate candidate : candidates) {
+            if (candidate.partner() >= 0) {
+                wanted.add(candidate.partner());
+            }
+        }
+        Map<Integer, Path> paths = new HashMap<>();
+        if (wanted.isEmpty()) {
+            return paths;
+        }
+        try (ChunkIndexReader reader = new ChunkIndexReader(indexFile)) {
+            int fileId = 0;
+            for (ChunkIndexReader.FileChunks file; paths.size() < wanted.size() && (file = reader.next()) != null; fileId++) {
+                if (wanted.contains(fileId)) {
+                    paths.put(fileId, file.relativePath());
+                }
+            }
+        }
+        return paths;
+    }
+
+    private Candidate sharedFile(ChunkIndexReader.FileChunks file, int fileId) {
+        long sampledBytes = 0;
+        long sampledSharedBytes = 0;
+        Map<Integer, Long> partners = new HashMap<>();
+        for (int chunk = 0; chunk < file.count(); chunk++) {
+            long digest = file.digests()[chunk];
+            if (!sampled(digest)) {
+                continue;
+            }
+            int length = file.lengths()[chunk];
+            sampledBytes += length;
+            int bucket = find(digest);
+            if (bucket >= 0 && counts[bucket] > 1) {
+                sampledSharedBytes += length;
+                int partner = firstFile[bucket] != fileId ? firstFile[bucket] : otherFile[bucket] - 1;
+                if (partner >= 0) {
+                    partners.merge(partner, (long) length, Long::sum);
+                }
+            }
+        }
+        if (sampledSharedBytes == 0) {
+            return null;
+        }
+        int partner = partners.entrySet().stream()
+                .max(Map.Entry.<Integer, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder())))
+                .map(Map.Entry::getKey)
+                .orElse(-1);
+        long size = file.size();
+        return new Candidate(file.relativePath(), size, scale(size, sampledSharedBytes, sampledBytes), partner);
+    }
+
+    /**
+     * {@code total * part / whole} without overflowing on large byte counts.
+     */
+    private static long scale(long total, long part, long whole) {
+        return whole == 0 ? 0 : Math.round(total * ((double) part / whole));
+    }
+
+    private boolean sampled(long digest) {
+        return (digest & ((1L << shift) - 1)) == 0;
+    }
+
+    private void add(long digest, int length, int fileId) {
+        int bucket = find(digest);
+        if (bucket >= 0) {
+            counts[bucket]++;
+            if (otherFile[bucket] == 0 && firstFile[bucket] != fileId) {
+                otherFile[bucket] = fileId + 1;
+            }
+            return;
+        }
+        if (size == tableCapacity) {
+            // Full: halve the sample until something falls out. The new digest may be among the dropped.
+            while (size == tableCapacity) {
+                shift++;
+                rebuild(keys.length);
+            }
+            if (!sampled(digest)) {
+                return;
+            }
+        } else if ((size + 1) * 2L > keys.length) {
+            rebuild(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        bucket = spread(digest) & mask;
+        while (counts[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        keys[bucket] = digest;
+        lengths[bucket] = length;
+        counts[bucket] = 1;
+        firstFile[bucket] = fileId;
+        size++;
+    }
+
+    private int find(long digest) {
+        int mask = keys.length - 1;
+        for (int bucket = spread(digest) & mask; ; bucket = (bucket + 1) & mask) {
+            if (counts[bucket] == 0) {
+                return -1;
+            }
+            if (keys[bucket] == digest) {
+                return bucket;
+            }
+        }
+    }
+
+    /**
+     * Re-inserts the entries that pass the current sample mask into a table of {@code tableSize} buckets.
+     */
+    private void rebuild(int tableSize) {
+        long[] oldKeys = keys;
+        int[] oldLengths = lengths;
+        int[] oldCounts = counts;
+        int[] oldFirstFile = firstFile;
+        int[] oldOtherFile = otherFile;
+        allocate(tableSize);
+        size = 0;
+        int mask = tableSize - 1;
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldCounts[old] == 0 || !sampled(oldKeys[old])) {
+                continue;
+            }
+            int bucket = spread(oldKeys[old]) & mask;
+            while (counts[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+            keys[bucket] = oldKeys[old];
+            lengths[bucket] = oldLengths[old];
+            counts[bucket] = oldCounts[old];
+            firstFile[bucket] = oldFirstFile[old];
+            otherFile[bucket] = oldOtherFile[old];
+            size++;
+        }
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        lengths = new int[tableSize];
+        counts = new int[tableSize];
+        firstFile = new int[tableSize];
+        otherFile = new int[tableSize];
+    }
+
+    private static int spread(long digest) {
+        // The low bits double as the sample mask, so index the table by the high ones.
+        return (int) (digest >>> 32) ^ (int) (digest >>> 17);
+    }
+
+    private static int tableFor(int entries) {
+        // Power of two with room for the entries at a load factor of one half.
+        return Integer.highestOneBit(Math.max(16, entries) * 2 - 1) << 1;
+    }
+}
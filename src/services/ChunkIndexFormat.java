@@ -0,0 +1,26 @@
+package services;
+
+import java.nio.file.Path;
+
+/**
+ * Layout of the {@code <index>.chunks} side file written by {@code scan --chunks}. All numbers are
+ * big-endian.
+ * <pre>
+ * header  magic "FBCHUNK1", int version, int hashAlgorithmId, int minSize, int averageSize, int maxSize
+ * files   (until end of file)
+ *   int pathLength, UTF-8 relative path, int chunkCount, chunkCount x (int length, long digest)
+ * </pre>
+ * Files are in the order their hashing finished, not path order. Chunk digests are XXH64 whatever the
+ * index itself uses: they only feed a savings estimate, and 64 bits keep collisions out of it.
+ */
+final class ChunkIndexFormat {
+    static final byte[] MAGIC = {'F', 'B', 'C', 'H', 'U', 'N', 'K', '1'};
+    static final int VERSION = 1;
+
+    private ChunkIndexFormat() {
+    }
+
+    static Path chunkFileFor(Path indexFile) {
+        return indexFile.resolveSibling(indexFile.getFileName() + ".chunks");
+    }
+}
@@ -0,0 +1,91 @@
+package services;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static services.ChunkIndexFormat.*;
+
+/**
+ * Reads the chunk side file of an index one file at a time; only the chunks of the current file are
+ * held in memory.
+ */
+public class ChunkIndexReader implements AutoCloseable {
+    /**
+     * The chunks of one file, in file order.
+     */
+    public record FileChunks(Path relativePath, int[] lengths, long[] digests) {
+        public int count() {
+            return lengths.length;
+        }
+
+        public long size() {
+            return Arrays.stream(lengths).asLongStream().sum();
+        }
+    }
+
+    private final Path chunkFile;
+    private final DataInputStream in;
+    private final int averageSize;
+
+    public ChunkIndexReader(Path indexFile) throws IOException {
+        this.chunkFile = chunkFileFor(indexFile);
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(chunkFile), 1 << 16));
+        try {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                throw new IOException("Not a FileBox chunk file: " + chunkFile);
+            }
+            int algorithmId = in.readInt();
+            if (algorithmId != GearChunker.DIGEST_ALGORITHM.id()) {
+                throw new IOException(String.format("Chunk file %s holds digests of algorithm id %d, expected %s",
+                        chunkFile, algorithmId, GearChunker.DIGEST_ALGORITHM.label()));
+            }
+            in.readInt();
+            this.averageSize = in.readInt();
+            in.readInt();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public static boolean exists(Path indexFile) {
+        return Files.exists(chunkFileFor(indexFile));
+    }
+
+    public int averageSize() {
+        return averageSize;
+    }
+
+    /**
+     * The next file, or null at the end.
+     */
+    public FileChunks next() throws IOException {
+        int pathLength;
+        try {
+            pathLength = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        Path relativePath = Path.of(new String(in.readNBytes(pathLength), StandardCharsets.UTF_8));
+        int count = in.readInt();
+        int[] lengths = new int[count];
+        long[] digests = new long[count];
+        for (int chunk = 0; chunk < count; chunk++) {
+            lengths[chunk] = in.readInt();
+            digests[chunk] = in.readLong();
+        }
+        return new FileChunks(relativePath, lengths, digests);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,81 @@
+package services;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static services.ChunkIndexFormat.*;
+
+/**
+ * Streams the chunks of each file into the side file of an index as the scan hashes it. Written to a
+ * temporary file and moved into place by {@link #finish()}, like the index itself. Workers share one
+ * writer; a file's chunks are written as one block.
+ */
+public class ChunkIndexWriter implements AutoCloseable {
+    private final Path tempFile;
+    private final Path chunkFile;
+    private final DataOutputStream out;
+    private long files;
+    private long chunks;
+
+    public ChunkIndexWriter(Path indexFile, int minSize, int averageSize, int maxSize) throws IOException {
+        this.chunkFile = chunkFileFor(indexFile);
+        this.tempFile = chunkFile.resolveSibling(chunkFile.getFileName() + ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16));
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(GearChunker.DIGEST_ALGORITHM.id());
+        out.writeInt(minSize);
+        out.writeInt(averageSize);
+        out.writeInt(maxSize);
+    }
+
+    public synchronized void write(Path relativePath, GearChunker chunker) throws IOException {
+        byte[] path = relativePath.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(path.length);
+        out.write(path);
+        out.writeInt(chunker.chunkCount());
+        for (int chunk = 0; chunk < chunker.chunkCount(); chunk++) {
+            out.writeInt(chunker.chunkLength(chunk));
+            out.writeLong(chunker.chunkDigest(chunk));
+        }
+        files++;
+        chunks += chunker.chunkCount();
+    }
+
+    public synchronized long files() {
+        return files;
+    }
+
+    public synchronized long chunks() {
+        return chunks;
+    }
+
+    /**
+     * Replaces the previous side file, if any, with what was written.
+     */
+    public synchronized void finish() throws IOException {
+        out.close();
+        Files.move(tempFile, chunkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Discards the temporary file unless {@link #finish()} moved it into place.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        Files.deleteIfExists(tempFile);
+    }
+
+    /**
+     * Removes the side file of an index scanned without chunks, so it never describes other content.
+     */
+    public static void deleteStale(Path indexFile) throws IOException {
+        Files.deleteIfExists(chunkFileFor(indexFile));
+    }
+}
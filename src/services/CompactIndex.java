@@ -0,0 +1,457 @@
+package services;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Index entries keyed by relative path, laid out for millions of files rather than as one
+ * {@code Path} + {@link FileEntry} + hex {@code String} per file. Directories are interned once in a
+ * table; each file is a slot holding its directory id, its file name as UTF-8 bytes, and size, mtime and
+ * raw digest bytes in primitive arrays. An open-addressing table of slot numbers does the lookups. A slot
+ * reserves exactly the digest length of the index's {@link HashAlgorithm}, 8 bytes for XXH64.
+ * <p>
+ * Reads take a shared lock and writes an exclusive one, so the watch loop can update while the
+ * compactor takes a snapshot. {@link #forEach} copies the arrays under the lock and builds the
+ * {@code FileEntry} objects after releasing it.
+ */
+public class CompactIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int digestLength;
+
+    // Directory table; append-only, so a copied reference stays valid for the ids it covered.
+    private final Map<Path, Integer> directoryIds = new HashMap<>();
+    private Path[] directories = new Path[64];
+    private int directoryCount;
+
+    // Slots; a null name marks a free slot.
+    private int[] slotDirectory;
+    private byte[][] slotName;
+    private long[] slotSize;
+    private long[] slotMtime;
+    private boolean[] slotHashed;
+    private byte[] slotDigest;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotsUsed;
+    private int size;
+
+    // Slot number + 1 per bucket, EMPTY or TOMBSTONE.
+    private int[] table;
+    private int tombstones;
+
+    public CompactIndex(HashAlgorithm hashAlgorithm) {
+        this(INITIAL_CAPACITY, hashAlgorithm);
+    }
+
+    public CompactIndex(int expectedEntries, HashAlgorithm hashAlgorithm) {
+        digestLength = hashAlgorithm.digestLength();
+        int capacity = Math.max(16, expectedEntries);
+        slotDirectory = new int[capacity];
+        slotName = new byte[capacity][];
+        slotSize = new long[capacity];
+        slotMtime = new long[capacity];
+        slotHashed = new boolean[capacity];
+        slotDigest = new byte[capacity * digestLength];
+        table = new int[tableSizeFor(capacity)];
+        internDirectory(Path.of(""));
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(Path relativePath) {
+        lock.readLock().lock();
+        try {
+            return find(relativePath) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public FileEntry get(Path relativePath) {
+        lock.readLock().lock();
+        try {
+            int slot = find(relativePath);
+            return slot < 0 ? null : entryAt(slot, relativePath);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the entry or replaces the one with the same path. Digests must be hex of the index's
+     * algorithm, or {@link FileEntry#NO_HASH}.
+     */
+    public void put(FileEntry entry) {
+        byte[] digest = entry.hasHash() ? HexFormat.of().parseHex(entry.sha256()) : null;
+        if (digest != null && digest.length != digestLength) {
+            throw new IllegalArgumentException(String.format("Digest of %d bytes where %d are expected: %s",
+                    digest.length, digestLength, entry.relativePath()));
+        }
+
+        lock.writeLock().lock();
+        try {
+            int directory = internDirectory(directoryOf(entry.relativePath()));
+            byte[] name = nameOf(entry.relativePath());
+            int bucket = findBucket(directory, name);
+            int slot;
+            if (bucket >= 0) {
+                slot = table[bucket] - 1;
+            } else {
+                slot = allocateSlot();
+                slotDirectory[slot] = directory;
+                slotName[slot] = name;
+                insert(slot);
+                size++;
+            }
+            slotSize[slot] = entry.size();
+            slotMtime[slot] = entry.lastModifiedTime();
+            slotHashed[slot] = digest != null;
+            if (digest != null) {
+                System.arraycopy(digest, 0, slotDigest, slot * digestLength, digestLength);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether there was an entry to remove.
+     */
+    public boolean remove(Path relativePath) {
+        lock.writeLock().lock();
+        try {
+            Integer directory = directoryIds.get(directoryOf(relativePath));
+            if (directory == null) {
+                return false;
+            }
+            int bucket = findBucket(directory, nameOf(relativePath));
+            if (bucket < 0) {
+                return false;
+            }
+            int slot = table[bucket] - 1;
+            table[bucket] = TOMBSTONE;
+            tombstones++;
+            slotName[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            size--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether {@code relativePath} is a directory that an entry was ever added below. Directories stay
+     * known after their entries are removed, so this may be true of one that is empty by now.
+     */
+    public boolean hasDirectory(Path relativePath) {
+        lock.readLock().lock();
+        try {
+            return directoryIds.containsKey(relativePath);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Paths of every entry below {@code prefix}; an empty prefix means the whole index.
+     */
+    public List<Path> pathsUnder(Path prefix) {
+        List<Path> paths = new ArrayList<>();
+        boolean wholeIndex = prefix.toString().isEmpty();
+        lock.readLock().lock();
+        try {
+            boolean[] below = new boolean[directoryCount];
+            for (int directory = 0; directory < directoryCount; directory++) {
+                below[directory] = wholeIndex || directories[directory].startsWith(prefix);
+            }
+            // The prefix itself may be a file, which lives in its parent directory rather than below it.
+            Integer parent = wholeIndex ? null : directoryIds.get(directoryOf(prefix));
+            byte[] prefixName = wholeIndex ? null : nameOf(prefix);
+            for (int slot = 0; slot < slotsUsed; slot++) {
+                if (slotName[slot] == null) {
+                    continue;
+                }
+                int directory = slotDirectory[slot];
+                if (below[directory] || (parent != null && parent == directory && Arrays.equals(slotName[slot], prefixName))) {
+                    paths.add(pathAt(slot, directories));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return paths;
+    }
+
+    /**
+     * Visits a consistent snapshot of every entry. The arrays are copied under the read lock, so
+     * writers wait only for the copy and not for {@code action}.
+     */
+    public void forEach(Consumer<FileEntry> action) {
+        int used;
+        int[] directoryOf;
+        byte[][] names;
+        long[] sizes;
+        long[] mtimes;
+        boolean[] hashed;
+        byte[] digests;
+        Path[] directorySnapshot;
+        lock.readLock().lock();
+        try {
+            used = slotsUsed;
+            directoryOf = Arrays.copyOf(slotDirectory, used);
+            names = Arrays.copyOf(slotName, used);
+            sizes = Arrays.copyOf(slotSize, used);
+            mtimes = Arrays.copyOf(slotMtime, used);
+            hashed = Arrays.copyOf(slotHashed, used);
+            digests = Arrays.copyOf(slotDigest, used * digestLength);
+            directorySnapshot = directories;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        HexFormat hex = HexFormat.of();
+        for (int slot = 0; slot < used; slot++) {
+            if (names[slot] == null) {
+                continue;
+            }
+            Path path = directorySnapshot[directoryOf[slot]].resolve(new String(names[slot], StandardCharsets.UTF_8));
+            String digest = !hashed[slot] ? FileEntry.NO_HASH
+                    : hex.formatHex(digests, slot * digestLength, (slot + 1) * digestLength);
+            action.accept(new FileEntry(path, sizes[slot], mtimes[slot], digest));
+        }
+    }
+
+    /**
+     * Entries whose digest starts with {@code hexPrefix}, which must be hex digits only. The prefix is
+     * compared with the raw digest bytes under the read lock, and only the matches become
+     * {@code FileEntry} objects.
+     */
+    public List<FileEntry> withDigestPrefix(String hexPrefix) {
+        List<FileEntry> matches = new ArrayList<>();
+        if (hexPrefix.length() > digestLength * 2) {
+            return matches;
+        }
+        // Whole bytes of the prefix, plus the high nibble of one more when it has an odd length.
+        byte[] prefix = HexFormat.of().parseHex(hexPrefix, 0, hexPrefix.length() & ~1);
+        int halfByte = (hexPrefix.length() & 1) == 0 ? -1 : Character.digit(hexPrefix.charAt(hexPrefix.length() - 1), 16);
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotsUsed; slot++) {
+                if (slotName[slot] == null || !slotHashed[slot]) {
+                    continue;
+                }
+                int offset = slot * digestLength;
+                if (!Arrays.equals(slotDigest, offset, offset + prefix.length, prefix, 0, prefix.length)) {
+                    continue;
+                }
+                if (halfByte < 0 || (slotDigest[offset + prefix.length] & 0xf0) >>> 4 == halfByte) {
+                    matches.add(entryAt(slot, pathAt(slot, directories)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    /**
+     * Hashed entries whose size at least one other hashed entry has: the candidates for duplicates. The
+     * sizes are copied under the read lock and sorted after releasing it; a second pass under the lock
+     * builds {@code FileEntry} objects for the candidates only. An entry written between the two passes
+     * may leave a size with a single candidate, which callers drop when grouping.
+     */
+    public List<FileEntry> withSharedSize() {
+        long[] sizes;
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            sizes = new long[size];
+            for (int slot = 0; slot < slotsUsed; slot++) {
+                if (slotName[slot] != null && slotHashed[slot]) {
+                    sizes[count++] = slotSize[slot];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Arrays.sort(sizes, 0, count);
+        long[] shared = new long[count / 2];
+        int sharedCount = 0;
+        for (int i = 1; i < count; i++) {
+            if (sizes[i] == sizes[i - 1] && (sharedCount == 0 || shared[sharedCount - 1] != sizes[i])) {
+                shared[sharedCount++] = sizes[i];
+            }
+        }
+
+        List<FileEntry> candidates = new ArrayList<>();
+        if (sharedCount == 0) {
+            return candidates;
+        }
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotsUsed; slot++) {
+                if (slotName[slot] != null && slotHashed[slot] && Arrays.binarySearch(shared, 0, sharedCount, slotSize[slot]) >= 0) {
+                    candidates.add(entryAt(slot, pathAt(slot, directories)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return candidates;
+    }
+
+    public List<FileEntry> entries() {
+        List<FileEntry> entries = new ArrayList<>();
+        forEach(entries::add);
+        return entries;
+    }
+
+    private FileEntry entryAt(int slot, Path path) {
+        String digest = !slotHashed[slot] ? FileEntry.NO_HASH
+                : HexFormat.of().formatHex(slotDigest, slot * digestLength, (slot + 1) * digestLength);
+        return new FileEntry(path, slotSize[slot], slotMtime[slot], digest);
+    }
+
+    private Path pathAt(int slot, Path[] directoryTable) {
+        return directoryTable[slotDirectory[slot]].resolve(new String(slotName[slot], StandardCharsets.UTF_8));
+    }
+
+    private static Path directoryOf(Path relativePath) {
+        Path parent = relativePath.getParent();
+        return parent == null ? Path.of("") : parent;
+    }
+
+    private static byte[] nameOf(Path relativePath) {
+        return relativePath.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int internDirectory(Path directory) {
+        Integer id = directoryIds.get(directory);
+        if (id != null) {
+            return id;
+        }
+        // Ancestors are interned too, so hasDirectory knows every directory above an entry.
+        if (!directory.toString().isEmpty()) {
+            Path parent = directory.getParent();
+            internDirectory(parent == null ? Path.of("") : parent);
+        }
+        if (directoryCount == directories.length) {
+            // A new array rather than growing in place, so snapshots holding the old one stay intact.
+            directories = Arrays.copyOf(directories, directoryCount * 2);
+        }
+        directories[directoryCount] = directory;
+        directoryIds.put(directory, directoryCount);
+        return directoryCount++;
+    }
+
+    private int find(Path relativePath) {
+        Integer directory = directoryIds.get(directoryOf(relativePath));
+        if (directory == null) {
+            return -1;
+        }
+        int bucket = findBucket(directory, nameOf(relativePath));
+        return bucket < 0 ? -1 : table[bucket] - 1;
+    }
+
+    private int findBucket(int directory, byte[] name) {
+        int mask = table.length - 1;
+        for (int bucket = hash(directory, name) & mask; ; bucket = (bucket + 1) & mask) {
+            int value = table[bucket];
+            if (value == EMPTY) {
+                return -1;
+            }
+            if (value != TOMBSTONE) {
+                int slot = value - 1;
+                if (slotDirectory[slot] == directory && Arrays.equals(slotName[slot], name)) {
+                    return bucket;
+                }
+            }
+        }
+    }
+
+    private void insert(int slot) {
+        // Keep at least a quarter of the table EMPTY so probes always terminate quickly.
+        if ((size + tombstones + 1) * 4L > table.length * 3L) {
+            rehash(tableSizeFor(Math.max(size + 1, slotsUsed)));
+        }
+        int mask = table.length - 1;
+        int bucket = hash(slotDirectory[slot], slotName[slot]) & mask;
+        while (table[bucket] != EMPTY && table[bucket] != TOMBSTONE) {
+            bucket = (bucket + 1) & mask;
+        }
+        if (table[bucket] == TOMBSTONE) {
+            tombstones--;
+        }
+        table[bucket] = slot + 1;
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        tombstones = 0;
+        int mask = tableSize - 1;
+        for (int slot = 0; slot < slotsUsed; slot++) {
+            if (slotName[slot] == null) {
+                continue;
+            }
+            int bucket = hash(slotDirectory[slot], slotName[slot]) & mask;
+            while (table[bucket] != EMPTY) {
+                bucket = (bucket + 1) & mask;
+            }
+            table[bucket] = slot + 1;
+        }
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotsUsed == slotName.length) {
+            int capacity = slotName.length * 2;
+            slotDirectory = Arrays.copyOf(slotDirectory, capacity);
+            slotName = Arrays.copyOf(slotName, capacity);
+            slotSize = Arrays.copyOf(slotSize, capacity);
+            slotMtime = Arrays.copyOf(slotMtime, capacity);
+            slotHashed = Arrays.copyOf(slotHashed, capacity);
+            slotDigest = Arrays.copyOf(slotDigest, capacity * digestLength);
+        }
+        return slotsUsed++;
+    }
+
+    private static int hash(int directory, byte[] name) {
+        int h = Arrays.hashCode(name) * 31 + directory;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int entries) {
+        // Power of two with room for the entries at a load factor of one half.
+        return Integer.highestOneBit(Math.max(16, entries) * 2 - 1) << 1;
+    }
+}
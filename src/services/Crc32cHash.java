@@ -0,0 +1,28 @@
+package services;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C, big-endian in the digest. The JIT turns {@link CRC32C} into the SSE4.2/ARMv8 CRC instructions.
+ */
+final class Crc32cHash implements StreamingHash {
+    private final CRC32C crc = new CRC32C();
+
+    @Override
+    public void update(ByteBuffer data) {
+        crc.update(data);
+    }
+
+    @Override
+    public byte[] digest() {
+        byte[] digest = ByteBuffer.allocate(4).putInt((int) crc.getValue()).array();
+        crc.reset();
+        return digest;
+    }
+
+    @Override
+    public void reset() {
+        crc.reset();
+    }
+}
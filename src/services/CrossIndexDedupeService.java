@@ -0,0 +1,337 @@
+package services;
+
+import model.CrossDedupeSummary;
+import model.CrossDuplicateGroup;
+import model.DuplicateCopy;
+import model.FileEntry;
+import model.HashAlgorithm;
+import model.IndexData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Finds files that are copies of each other across many indexes, typically scanned on different hosts,
+ * without holding all of their entries in memory. Every hashed entry becomes a record of
+ * (size, hash, origin, path); records are collected until they reach {@code sortMemory}, sorted and
+ * spilled to a run file, and the runs are then merged, at most {@link #MAX_FAN_IN} at a time, into one
+ * stream ordered by size (largest first) and hash. Copies are adjacent in that stream, so each
+ * duplicate group is handed out as soon as the key changes and only one group is held at a time.
+ * <p>
+ * The files behind the indexes are usually not readable from here, so matches rest on the stored
+ * hashes alone. Every index must have been hashed with the same algorithm, and entries of a
+ * {@code --no-hash} index are left out.
+ */
+public class CrossIndexDedupeService {
+    public static final long DEFAULT_SORT_MEMORY = 64L << 20;
+
+    private static final Logger LOGGER = Logger.getLogger(CrossIndexDedupeService.class.getName());
+    private static final int MAX_FAN_IN = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Rough heap cost of a record besides its characters: the record, two Strings and their arrays.
+    private static final long RECORD_OVERHEAD = 128;
+
+    private record SortRecord(long size, String hash, int origin, String path) {
+    }
+
+    private static final Comparator<SortRecord> ORDER = Comparator.comparingLong(SortRecord::size).reversed()
+            .thenComparing(SortRecord::hash)
+            .thenComparingInt(SortRecord::origin)
+            .thenComparing(SortRecord::path);
+
+    private final Path spillDirectory;
+    private final long sortMemory;
+
+    public CrossIndexDedupeService(Path spillDirectory, long sortMemory) {
+        if (sortMemory < 1) {
+            throw new IllegalArgumentException("sortMemory must be >= 1, got " + sortMemory);
+        }
+        this.spillDirectory = spillDirectory;
+        this.sortMemory = sortMemory;
+    }
+
+    /**
+     * Hands every group of two or more copies to {@code sink}, largest files first. Throws
+     * IllegalArgumentException when the indexes were hashed with different algorithms.
+     */
+    public CrossDedupeSummary findDuplicates(List<Path> indexFiles, Consumer<CrossDuplicateGroup> sink) throws IOException {
+        List<String> origins = origins(indexFiles);
+        GroupCollector groups = new GroupCollector(origins, sink);
+
+        Path workDirectory = Files.createTempDirectory(spillDirectory, "filebox-dedupe-");
+        try {
+            List<SortRecord> buffer = new ArrayList<>();
+            List<Path> runs = new ArrayList<>();
+            long buffered = 0;
+            long entries = 0;
+            long unhashed = 0;
+            for (int origin = 0; origin < indexFiles.size(); origin++) {
+                Path indexFile = indexFiles.get(origin);
+                try (IndexReader reader = IndexStoreService.openReader(indexFile)) {
+                    while (reader.hasNext()) {
+                        FileEntry entry = reader.next();
+                        if (!entry.hasHash()) {
+                            unhashed++;
+                            continue;
+                        }
+                        IndexStoreService.checkDigest(indexFile, reader.hashAlgorithm(), entry);
+                        SortRecord record = new SortRecord(entry.size(), entry.sha256(), origin, entry.relativePath().toString());
+                        buffer.add(record);
+                        entries++;
+                        buffered += RECORD_OVERHEAD + 2L * (record.hash().length() + record.path().length());
+                        if (buffered >= sortMemory) {
+                            runs.add(spill(buffer, workDirectory, runs.size()));
+                            buffer.clear();
+                            buffered = 0;
+                        }
+                    }
+                }
+            }
+            if (unhashed > 0) {
+                LOGGER.warning(String.format("Left out %d entries without a hash; rescan their roots without --no-hash", unhashed));
+            }
+
+            int runCount = runs.isEmpty() ? 0 : runs.size() + (buffer.isEmpty() ? 0 : 1);
+            int mergePasses = 0;
+            if (runs.isEmpty()) {
+                buffer.sort(ORDER);
+                buffer.forEach(groups);
+            } else {
+                if (!buffer.isEmpty()) {
+                    runs.add(spill(buffer, workDirectory, runs.size()));
+                    buffer.clear();
+                }
+                LOGGER.info(String.format("Sorted %d entries into %d runs in %s", entries, runs.size(), workDirectory));
+                int nextRun = runs.size();
+                while (runs.size() > MAX_FAN_IN) {
+                    List<Path> merged = new ArrayList<>();
+                    for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                        List<Path> batch = runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN));
+                        Path run = workDirectory.resolve("run-" + nextRun++);
+                        try (DataOutputStream out = openRun(run)) {
+                            merge(batch, record -> writeRecord(out, record));
+                        }
+                        for (Path input : batch) {
+                            Files.delete(input);
+                        }
+                        merged.add(run);
+                    }
+                    runs = merged;
+                    mergePasses++;
+                }
+                merge(runs, groups::accept);
+                mergePasses++;
+            }
+            groups.finish();
+            return groups.summary(indexFiles.size(), entries, unhashed, runCount, mergePasses);
+        } finally {
+            deleteRecursively(workDirectory);
+        }
+    }
+
+    /**
+     * Names each index by its root. Roots are often the same on every host, so when two indexes share
+     * one, the index file name is put in front.
+     */
+    private static List<String> origins(List<Path> indexFiles) {
+        List<String> roots = new ArrayList<>();
+        Map<String, Integer> rootCounts = new HashMap<>();
+        HashAlgorithm hashAlgorithm = null;
+        for (Path indexFile : indexFiles) {
+            IndexData header = IndexStoreService.readHeader(indexFile);
+            if (hashAlgorithm != null && header.hashAlgorithm() != hashAlgorithm) {
+                throw new IllegalArgumentException(String.format("%s is hashed with %s, but %s with %s; rescan with the same --algorithm",
+                        indexFile, header.hashAlgorithm().label(), indexFiles.getFirst(), hashAlgorithm.label()));
+            }
+            hashAlgorithm = header.hashAlgorithm();
+            roots.add(header.path());
+            rootCounts.merge(header.path(), 1, Integer::sum);
+        }
+        if (!hashAlgorithm.cryptographic()) {
+            LOGGER.info(String.format("Matching on %s digests only; files on other hosts cannot be read to verify them", hashAlgorithm.label()));
+        }
+
+        List<String> origins = new ArrayList<>();
+        for (int i = 0; i < roots.size(); i++) {
+            String root = roots.get(i);
+            origins.add(rootCounts.get(root) > 1 ? indexFiles.get(i).getFileName() + ":" + root : root);
+        }
+        return origins;
+    }
+
+    private static Path spill(List<SortRecord> buffer, Path workDirectory, int runNumber) throws IOException {
+        buffer.sort(ORDER);
+        Path run = workDirectory.resolve("run-" + runNumber);
+        try (DataOutputStream out = openRun(run)) {
+            for (SortRecord record : buffer) {
+                writeRecord(out, record);
+            }
+        }
+        return run;
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE));
+    }
+
+    private interface RecordSink {
+        void accept(SortRecord record) throws IOException;
+    }
+
+    /**
+     * Streams the records of the sorted runs to {@code sink} in {@link #ORDER}.
+     */
+    private static void merge(List<Path> runs, RecordSink sink) throws IOException {
+        PriorityQueue<RunCursor> heads = new PriorityQueue<>(Comparator.comparing(RunCursor::current, ORDER));
+        List<RunCursor> cursors = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                RunCursor cursor = new RunCursor(run);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+            while (!heads.isEmpty()) {
+                RunCursor head = heads.poll();
+                sink.accept(head.current());
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, SortRecord record) throws IOException {
+        out.writeLong(record.size());
+        out.writeInt(record.origin());
+        writeString(out, record.hash());
+        writeString(out, record.path());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static final class RunCursor implements AutoCloseable {
+        private final DataInputStream in;
+        private SortRecord current;
+
+        RunCursor(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+        }
+
+        SortRecord current() {
+            return current;
+        }
+
+        /**
+         * Reads the next record; false at the end of the run.
+         */
+        boolean advance() throws IOException {
+            long size;
+            try {
+                size = in.readLong();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            int origin = in.readInt();
+            String hash = readString();
+            String path = readString();
+            current = new SortRecord(size, hash, origin, path);
+            return true;
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Takes records in sorted order and emits each run of equal (size, hash) with two or more members.
+     */
+    private static final class GroupCollector implements Consumer<SortRecord> {
+        private final List<String> origins;
+        private final Consumer<CrossDuplicateGroup> sink;
+        private final List<DuplicateCopy> copies = new ArrayList<>();
+        private long size = -1;
+        private String hash;
+        private long groups;
+        private long duplicateFiles;
+        private long wastedBytes;
+
+        GroupCollector(List<String> origins, Consumer<CrossDuplicateGroup> sink) {
+            this.origins = origins;
+            this.sink = sink;
+        }
+
+        @Override
+        public void accept(SortRecord record) {
+            if (record.size() != size || !record.hash().equals(hash)) {
+                finish();
+                size = record.size();
+                hash = record.hash();
+            }
+            copies.add(new DuplicateCopy(origins.get(record.origin()), Path.of(record.path())));
+        }
+
+        void finish() {
+            if (copies.size() > 1) {
+                CrossDuplicateGroup group = new CrossDuplicateGroup(hash, size, List.copyOf(copies));
+                groups++;
+                duplicateFiles += copies.size();
+                wastedBytes += group.wastedBytes();
+                sink.accept(group);
+            }
+            copies.clear();
+        }
+
+        CrossDedupeSummary summary(int indexes, long entries, long unhashed, int runs, int mergePasses) {
+            return new CrossDedupeSummary(indexes, entries, unhashed, runs, mergePasses, groups, duplicateFiles, wastedBytes);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.warning(String.format("Cannot delete %s: %s", file, e.getMessage()));
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Cannot clean up %s: %s", directory, e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package services;
+
+import model.DedupeReport;
+import model.DedupeStage;
+import model.DuplicateGroup;
+import model.FileEntry;
+import model.HashAlgorithm;
+import model.HashResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Finds duplicate files in up to four stages, each one reading more bytes than the last:
+ * <ol>
+ *     <li>group by size, which costs nothing beyond the index itself,</li>
+ *     <li>group by a CRC32C of the first and last {@link #PARTIAL_WINDOW} bytes,</li>
+ *     <li>group by the full hash, taken from the index when the scan stored one,</li>
+ *     <li>on request, for indexes hashed with a non-cryptographic algorithm, regroup by SHA-256 so that
+ *     a 64-bit collision can never report two different files as copies.</li>
+ * </ol>
+ * Without that request, stored hashes are trusted as they are, and an index whose files all have one
+ * is deduplicated from the index alone.
+ * A file only reaches the next stage while it still shares its key with another file. A group that
+ * mixes stored and missing hashes has the missing ones computed with the index's own algorithm, so the
+ * digests are comparable. A group with no stored hash at all is hashed with SHA-256 straight away and
+ * skips the last stage, so no file is read in full twice.
+ */
+public class DedupeService {
+    public static final int PARTIAL_WINDOW = 4096;
+
+    private static final Logger LOGGER = Logger.getLogger(DedupeService.class.getName());
+    private final FileHasher sha256Hasher = new FileHasher(HashAlgorithm.SHA256);
+    private final boolean verify;
+
+    public DedupeService() {
+        this(false);
+    }
+
+    /**
+     * With {@code verify}, matches of a non-cryptographic hash are re-read and confirmed with SHA-256.
+     */
+    public DedupeService(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Streams the index twice instead of loading it: the first pass counts files per size, the second
+     * keeps only entries whose size is shared. Memory grows with the number of distinct sizes and
+     * size-stage survivors, not with the size of the index.
+     */
+    public DedupeReport findDuplicates(Path indexFile) {
+        Map<Long, Integer> sizeCounts = new HashMap<>();
+        long total = 0;
+        String rootPath;
+        HashAlgorithm hashAlgorithm;
+        try (IndexReader reader = IndexStoreService.openReader(indexFile)) {
+            rootPath = reader.rootPath();
+            hashAlgorithm = reader.hashAlgorithm();
+            while (reader.hasNext()) {
+                sizeCounts.merge(reader.next().size(), 1, Integer::sum);
+                total++;
+            }
+        }
+
+        List<FileEntry> candidates = new ArrayList<>();
+        try (IndexReader reader = IndexStoreService.openReader(indexFile)) {
+            while (reader.hasNext()) {
+                FileEntry entry = reader.next();
+                if (sizeCounts.get(entry.size()) > 1) {
+                    IndexStoreService.checkDigest(indexFile, hashAlgorithm, entry);
+                    candidates.add(entry);
+                }
+            }
+        }
+        LOGGER.info(String.format("Read %d entries from %s, %d share a size", total, indexFile, candidates.size()));
+
+        return findDuplicates(Path.of(rootPath), candidates, hashAlgorithm, total);
+    }
+
+    /**
+     * For entries whose stored hashes are SHA-256.
+     */
+    public DedupeReport findDuplicates(Path rootPath, List<FileEntry> entries) {
+        return findDuplicates(rootPath, entries, HashAlgorithm.SHA256);
+    }
+
+    public DedupeReport findDuplicates(Path rootPath, List<FileEntry> entries, HashAlgorithm hashAlgorithm) {
+        return findDuplicates(rootPath, entries, hashAlgorithm, entries.size());
+    }
+
+    private DedupeReport findDuplicates(Path rootPath, List<FileEntry> entries, HashAlgorithm hashAlgorithm, long totalEntries) {
+        FileHasher fileHasher = hashAlgorithm == HashAlgorithm.SHA256 ? sha256Hasher : new FileHasher(hashAlgorithm);
+        List<DedupeStage> stages = new ArrayList<>();
+
+        List<List<FileEntry>> bySize = duplicatesOnly(groupBy(entries, FileEntry::size));
+        stages.add(new DedupeStage("size", totalEntries, totalEntries - countFiles(bySize)));
+
+        // Files a stage could not read, counted by the key functions below.
+        long[] unreadable = {0};
+
+        List<List<FileEntry>> byPartialHash = new ArrayList<>();
+        for (List<FileEntry> group : bySize) {
+            // Stored hashes are already stronger than the partial hash, so there is nothing to gain by reading.
+            if (group.stream().allMatch(FileEntry::hasHash)) {
+                byPartialHash.add(group);
+            } else {
+                byPartialHash.addAll(duplicatesOnly(groupBy(group, entry -> counted(partialHash(rootPath, entry), unreadable))));
+            }
+        }
+        stages.add(stage("partial-hash", countFiles(bySize), byPartialHash, unreadable));
+
+        // Groups still to be confirmed with SHA-256, and groups whose key already is one.
+        List<DuplicateGroup> groups = new ArrayList<>();
+        List<DuplicateGroup> verified = new ArrayList<>();
+        for (List<FileEntry> group : byPartialHash) {
+            if (!hashAlgorithm.cryptographic() && group.stream().noneMatch(FileEntry::hasHash)) {
+                verified.addAll(hashGroups(group, entry -> counted(computeHash(rootPath, entry, sha256Hasher), unreadable)));
+            } else {
+                groups.addAll(hashGroups(group, entry -> counted(fullHash(rootPath, entry, fileHasher), unreadable)));
+            }
+        }
+        long fullHashed = countGroupedFiles(groups) + countGroupedFiles(verified);
+        stages.add(new DedupeStage("full-hash", countFiles(byPartialHash), countFiles(byPartialHash) - fullHashed, take(unreadable)));
+
+        if (verify && !hashAlgorithm.cryptographic()) {
+            // Every remaining candidate is read here, so a file that is gone or unreadable drops out.
+            long candidates = countGroupedFiles(groups);
+            List<DuplicateGroup> confirmed = new ArrayList<>();
+            for (DuplicateGroup group : groups) {
+                confirmed.addAll(hashGroups(group.files(), entry -> counted(computeHash(rootPath, entry, sha256Hasher), unreadable)));
+            }
+            stages.add(new DedupeStage("sha256-verify", candidates, candidates - countGroupedFiles(confirmed), take(unreadable)));
+            verified.addAll(confirmed);
+            groups = verified;
+        } else {
+            groups.addAll(verified);
+        }
+
+        long skipped = stages.stream().mapToLong(DedupeStage::unreadable).sum();
+        if (skipped > 0) {
+            LOGGER.warning(String.format("%d candidate files could not be read under %s and are left out of the groups", skipped, rootPath));
+        }
+
+        groups.sort(Comparator.comparingLong(DuplicateGroup::size).reversed().thenComparing(DuplicateGroup::sha256));
+        return new DedupeReport(groups, stages);
+    }
+
+    /**
+     * Groups entries by key; entries whose key is null (unreadable files) are left out.
+     */
+    private static <K> Map<K, List<FileEntry>> groupBy(List<FileEntry> entries, Function<FileEntry, K> keyFunction) {
+        Map<K, List<FileEntry>> groups = new HashMap<>();
+        for (FileEntry entry : entries) {
+            K key = keyFunction.apply(entry);
+            if (key != null) {
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+            }
+        }
+        return groups;
+    }
+
+    private static <K> List<List<FileEntry>> duplicatesOnly(Map<K, List<FileEntry>> groups) {
+        return groups.values().stream().filter(group -> group.size() > 1).toList();
+    }
+
+    private static List<DuplicateGroup> hashGroups(List<FileEntry> files, Function<FileEntry, String> hash) {
+        List<DuplicateGroup> groups = new ArrayList<>();
+        for (Map.Entry<String, List<FileEntry>> byHash : groupBy(files, hash).entrySet()) {
+            List<FileEntry> copies = byHash.getValue();
+            if (copies.size() > 1) {
+                groups.add(new DuplicateGroup(byHash.getKey(), copies.getFirst().size(), copies));
+            }
+        }
+        return groups;
+    }
+
+    private static long countGroupedFiles(List<DuplicateGroup> groups) {
+        return groups.stream().mapToLong(group -> group.files().size()).sum();
+    }
+
+    private static long countFiles(List<List<FileEntry>> groups) {
+        return groups.stream().mapToLong(List::size).sum();
+    }
+
+    private static DedupeStage stage(String name, long candidatesIn, List<List<FileEntry>> survivors, long[] unreadable) {
+        return new DedupeStage(name, candidatesIn, candidatesIn - countFiles(survivors), take(unreadable));
+    }
+
+    private static <K> K counted(K key, long[] unreadable) {
+        if (key == null) {
+            unreadable[0]++;
+        }
+        return key;
+    }
+
+    private static long take(long[] unreadable) {
+        long count = unreadable[0];
+        unreadable[0] = 0;
+        return count;
+    }
+
+    private Long partialHash(Path rootPath, FileEntry entry) {
+        Path absolutePath = rootPath.resolve(entry.relativePath());
+        try (FileChannel channel = FileChannel.open(absolutePath, StandardOpenOption.READ)) {
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocate(PARTIAL_WINDOW);
+            readFully(channel, buffer, 0);
+            crc.update(buffer.flip());
+
+            long tailStart = Math.max(PARTIAL_WINDOW, entry.size() - PARTIAL_WINDOW);
+            if (tailStart < entry.size()) {
+                buffer.clear();
+                readFully(channel, buffer, tailStart);
+                crc.update(buffer.flip());
+            }
+            return crc.getValue();
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Cannot read file %s: %s", absolutePath, e.getMessage()));
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            position += read;
+        }
+    }
+
+    private static String fullHash(Path rootPath, FileEntry entry, FileHasher fileHasher) {
+        if (entry.hasHash()) {
+            return entry.sha256();
+        }
+        return computeHash(rootPath, entry, fileHasher);
+    }
+
+    private static String computeHash(Path rootPath, FileEntry entry, FileHasher fileHasher) {
+        return switch (fileHasher.hash(rootPath.resolve(entry.relativePath()))) {
+            case HashResult.Success success -> success.hex();
+            case HashResult.Failure failure -> {
+                LOGGER.warning(String.format("Cannot read file %s: %s", failure.path(), failure.reason()));
+                yield null;
+            }
+        };
+    }
+}
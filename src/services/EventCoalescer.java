@@ -0,0 +1,111 @@
+package services;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Collects watch events per path and releases one net change once the path has been quiet for the
+ * configured window. A copy that fires dozens of ENTRY_MODIFY events becomes a single change. Nothing
+ * cancels out: a path created and deleted within the window may have been a file indexed before it, or
+ * a directory, so it is still released and the watcher checks the disk. Not thread-safe; owned by the
+ * watch worker whose stripe the paths belong to.
+ */
+public class EventCoalescer {
+    public enum ChangeKind {
+        CREATED, MODIFIED, DELETED
+    }
+
+    public record Change(Path relativePath, ChangeKind kind) {
+    }
+
+    private static final class Pending {
+        private ChangeKind kind;
+        private long lastEventNanos;
+
+        private Pending(ChangeKind kind, long lastEventNanos) {
+            this.kind = kind;
+            this.lastEventNanos = lastEventNanos;
+        }
+    }
+
+    private final long quietNanos;
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+    private long rawEvents;
+    private long emittedChanges;
+
+    public EventCoalescer(long quietMillis) {
+        this.quietNanos = quietMillis * 1_000_000L;
+    }
+
+    public void record(Path relativePath, WatchEvent.Kind<?> kind, long nowNanos) {
+        rawEvents++;
+        ChangeKind next = kind == ENTRY_CREATE ? ChangeKind.CREATED
+                : kind == ENTRY_DELETE ? ChangeKind.DELETED
+                : ChangeKind.MODIFIED;
+
+        Pending current = pending.get(relativePath);
+        if (current == null) {
+            pending.put(relativePath, new Pending(next, nowNanos));
+            return;
+        }
+
+        current.lastEventNanos = nowNanos;
+        current.kind = merge(current.kind, next);
+    }
+
+    /**
+     * Net effect of two changes in a row.
+     */
+    private static ChangeKind merge(ChangeKind first, ChangeKind second) {
+        return switch (first) {
+            // A delete after a create still goes out; the create may have replaced an indexed file.
+            case CREATED -> second == ChangeKind.DELETED ? ChangeKind.DELETED : ChangeKind.CREATED;
+            case MODIFIED -> second == ChangeKind.DELETED ? ChangeKind.DELETED : ChangeKind.MODIFIED;
+            case DELETED -> second == ChangeKind.DELETED ? ChangeKind.DELETED : ChangeKind.MODIFIED;
+        };
+    }
+
+    /**
+     * Nanoseconds until the oldest pending path settles, or -1 when nothing is pending.
+     */
+    public long nanosUntilNextSettle(long nowNanos) {
+        long earliest = Long.MAX_VALUE;
+        for (Pending change : pending.values()) {
+            earliest = Math.min(earliest, change.lastEventNanos + quietNanos);
+        }
+        return earliest == Long.MAX_VALUE ? -1 : Math.max(0, earliest - nowNanos);
+    }
+
+    public List<Change> drainSettled(long nowNanos) {
+        List<Change> settled = new ArrayList<>();
+        Iterator<Map.Entry<Path, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Pending> entry = iterator.next();
+            if (nowNanos - entry.getValue().lastEventNanos >= quietNanos) {
+                settled.add(new Change(entry.getKey(), entry.getValue().kind));
+                iterator.remove();
+            }
+        }
+        emittedChanges += settled.size();
+        return settled;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public long rawEvents() {
+        return rawEvents;
+    }
+
+    public long emittedChanges() {
+        return emittedChanges;
+    }
+}
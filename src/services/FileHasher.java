@@ -0,0 +1,163 @@
+package services;
+
+import model.HashAlgorithm;
+import model.HashResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes files with one {@link HashAlgorithm} over a {@link FileChannel}. Files below the mapping threshold are read through a direct buffer
+ * that each thread allocates once and reuses; larger files are hashed through {@link MappedByteBuffer}
+ * windows so the bytes are never copied onto the heap. Meant for platform worker threads: a virtual
+ * thread per file would allocate a fresh buffer for every file.
+ * <p>
+ * Time spent waiting for reads and time spent digesting are added up separately, which is what tells
+ * an I/O-bound scan from a CPU-bound one. Mapped windows fault their pages in during the digest, so for
+ * those files all of the time counts as digest time.
+ * <p>
+ * A {@link GearChunker} passed to {@link #hash(Path, GearChunker)} sees every buffer before the digest
+ * does, so chunking costs no extra read.
+ * <p>
+ * With a bandwidth limit every buffer, and every {@link #BUFFER_SIZE} slice of a mapped window, is
+ * paid for from the shared {@link TokenBucket}; that wait counts as neither read nor digest time.
+ */
+public class FileHasher {
+    public static final int BUFFER_SIZE = 1 << 20;
+    public static final long DEFAULT_MAPPING_THRESHOLD = 256L << 20;
+    public static final long MAPPING_WINDOW = 64L << 20;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final HashAlgorithm algorithm;
+    private final ThreadLocal<StreamingHash> hashes;
+    private final long mappingThreshold;
+    private final TokenBucket bandwidth;
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder digestNanos = new LongAdder();
+    private final LongAdder hashedBytes = new LongAdder();
+
+    public FileHasher(HashAlgorithm algorithm) {
+        this(algorithm, DEFAULT_MAPPING_THRESHOLD);
+    }
+
+    public FileHasher(HashAlgorithm algorithm, long mappingThreshold) {
+        this(algorithm, mappingThreshold, null);
+    }
+
+    /**
+     * {@code bandwidth} limits how fast files are read, or is null for no limit.
+     */
+    FileHasher(HashAlgorithm algorithm, long mappingThreshold, TokenBucket bandwidth) {
+        this.algorithm = algorithm;
+        this.hashes = ThreadLocal.withInitial(() -> StreamingHash.create(algorithm));
+        this.mappingThreshold = mappingThreshold;
+        this.bandwidth = bandwidth;
+    }
+
+    public HashAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    public HashResult hash(Path file) {
+        return hash(file, null);
+    }
+
+    /**
+     * Hashes {@code file} and, when {@code chunker} is not null, chunks it in the same pass. The chunker
+     * must have been reset; its chunks are complete once this returns {@link HashResult.Success}.
+     */
+    public HashResult hash(Path file, GearChunker chunker) {
+        StreamingHash digest = hashes.get();
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= mappingThreshold) {
+                hashMapped(channel, size, digest, chunker);
+            } else {
+                hashBuffered(channel, digest, chunker);
+            }
+            if (chunker != null) {
+                chunker.finish();
+            }
+            hashedBytes.add(size);
+            return new HashResult.Success(HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException | UnsupportedOperationException e) {
+            return new HashResult.Failure(file, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
+    private void hashBuffered(FileChannel channel, StreamingHash digest, GearChunker chunker) throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        long start = System.nanoTime();
+        while (channel.read(buffer) != -1) {
+            long read = System.nanoTime();
+            readNanos.add(read - start);
+            buffer.flip();
+            int length = buffer.remaining();
+            if (chunker != null) {
+                chunker.update(buffer.duplicate());
+            }
+            digest.update(buffer);
+            buffer.clear();
+            start = System.nanoTime();
+            digestNanos.add(start - read);
+            if (bandwidth != null) {
+                bandwidth.acquire(length);
+                start = System.nanoTime();
+            }
+        }
+        readNanos.add(System.nanoTime() - start);
+    }
+
+    private void hashMapped(FileChannel channel, long size, StreamingHash digest, GearChunker chunker) throws IOException {
+        for (long position = 0; position < size; position += MAPPING_WINDOW) {
+            long length = Math.min(MAPPING_WINDOW, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            if (bandwidth == null) {
+                digestSlice(window, digest, chunker);
+                continue;
+            }
+            for (int offset = 0; offset < window.limit(); offset += BUFFER_SIZE) {
+                ByteBuffer slice = window.slice(offset, Math.min(BUFFER_SIZE, window.limit() - offset));
+                bandwidth.acquire(slice.remaining());
+                digestSlice(slice, digest, chunker);
+            }
+        }
+    }
+
+    private void digestSlice(ByteBuffer data, StreamingHash digest, GearChunker chunker) {
+        long start = System.nanoTime();
+        if (chunker != null) {
+            chunker.update(data.duplicate());
+        }
+        digest.update(data);
+        digestNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Total time this hasher's threads spent in {@code read} calls.
+     */
+    public long readNanos() {
+        return readNanos.sum();
+    }
+
+    /**
+     * Total time this hasher's threads spent in the digest, page faults of mapped files included.
+     */
+    public long digestNanos() {
+        return digestNanos.sum();
+    }
+
+    public long hashedBytes() {
+        return hashedBytes.sum();
+    }
+
+}
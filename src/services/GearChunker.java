@@ -0,0 +1,132 @@
+package services;
+
+import model.HashAlgorithm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with a Gear rolling hash, fed the same buffers as the file digest so a file is
+ * still read once. The hash is shifted left and a per-byte random value added, so its top bits depend on
+ * the last few dozen bytes only; a chunk ends where they are all zero. Boundaries therefore follow the
+ * content and an insertion early in a file only moves the chunks around it.
+ * <p>
+ * As in FastCDC, no boundary is taken before {@code averageSize / 4} bytes, the mask is two bits
+ * stricter before the average size and two bits looser after it, which keeps most chunks near the
+ * average, and a chunk is cut at {@code averageSize * 8} bytes regardless. Each chunk gets an XXH64
+ * digest. Not thread-safe; one instance per worker, {@link #reset()} before each file.
+ */
+public final class GearChunker {
+    public static final int DEFAULT_AVERAGE_SIZE = 16 * 1024;
+    public static final HashAlgorithm DIGEST_ALGORITHM = HashAlgorithm.XXH64;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: boundaries must come out the same on every run and every host.
+        SplittableRandom random = new SplittableRandom(0x6765617243444301L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+    private final StreamingHash chunkHash = StreamingHash.create(DIGEST_ALGORITHM);
+    private long gear;
+    private int length;
+    private int[] lengths = new int[64];
+    private long[] digests = new long[64];
+    private int count;
+
+    public GearChunker(int averageSize) {
+        if (averageSize < 256 || Integer.bitCount(averageSize) != 1 || averageSize > (1 << 24)) {
+            throw new IllegalArgumentException("Average chunk size must be a power of two from 256 bytes to 16 MB, got " + averageSize);
+        }
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.averageSize = averageSize;
+        this.minSize = averageSize / 4;
+        this.maxSize = averageSize * 8;
+        this.strictMask = -1L << (64 - (bits + 2));
+        this.looseMask = -1L << (64 - (bits - 2));
+    }
+
+    public int minSize() {
+        return minSize;
+    }
+
+    public int averageSize() {
+        return averageSize;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public void reset() {
+        gear = 0;
+        length = 0;
+        count = 0;
+        chunkHash.reset();
+    }
+
+    /**
+     * Consumes the remaining bytes of {@code data}, leaving its position at the limit.
+     */
+    public void update(ByteBuffer data) {
+        int segmentStart = data.position();
+        int limit = data.limit();
+        for (int i = segmentStart; i < limit; i++) {
+            gear = (gear << 1) + GEAR[data.get(i) & 0xff];
+            length++;
+            if (length < minSize) {
+                continue;
+            }
+            long mask = length < averageSize ? strictMask : looseMask;
+            if ((gear & mask) == 0 || length >= maxSize) {
+                chunkHash.update(data.slice(segmentStart, i + 1 - segmentStart));
+                cut();
+                segmentStart = i + 1;
+            }
+        }
+        chunkHash.update(data.slice(segmentStart, limit - segmentStart));
+        data.position(limit);
+    }
+
+    /**
+     * Ends the last chunk of the file, if it has any bytes.
+     */
+    public void finish() {
+        if (length > 0) {
+            cut();
+        }
+    }
+
+    private void cut() {
+        if (count == lengths.length) {
+            lengths = Arrays.copyOf(lengths, count * 2);
+            digests = Arrays.copyOf(digests, count * 2);
+        }
+        lengths[count] = length;
+        digests[count] = ByteBuffer.wrap(chunkHash.digest()).getLong();
+        count++;
+        length = 0;
+        gear = 0;
+    }
+
+    public int chunkCount() {
+        return count;
+    }
+
+    public int chunkLength(int chunk) {
+        return lengths[chunk];
+    }
+
+    public long chunkDigest(int chunk) {
+        return digests[chunk];
+    }
+}
@@ -0,0 +1,67 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Sends one request to an {@link IndexServer} and streams back the lines of its answer.
+ */
+public class IndexClient {
+    private final Path socketPath;
+
+    public IndexClient(Path socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    /**
+     * Hands every line of the answer to {@code sink} and returns how many there were. A request the
+     * server rejects throws IllegalArgumentException with the server's message.
+     */
+    public long request(String request, Consumer<String> sink) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+            Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8);
+            out.write(request.replace('\n', ' ') + "\n");
+            out.flush();
+            channel.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8), 1 << 16);
+            String status = in.readLine();
+            if (status == null) {
+                throw new EOFException("Server closed the connection without answering");
+            }
+            if (status.startsWith("ERR ")) {
+                throw new IllegalArgumentException(status.substring(4));
+            }
+            long count = status.startsWith("OK ") ? parseCount(status.substring(3)) : -1;
+            if (count < 0) {
+                throw new IOException("Unexpected answer from server: " + status);
+            }
+            for (long line = 0; line < count; line++) {
+                String value = in.readLine();
+                if (value == null) {
+                    throw new EOFException(String.format("Answer cut off after %d of %d lines", line, count));
+                }
+                sink.accept(value);
+            }
+            return count;
+        }
+    }
+
+    private static long parseCount(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package services;
+
+import model.ChangeType;
+import model.DiffSummary;
+import model.FileEntry;
+import model.HashAlgorithm;
+import model.IndexChange;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Compares two indexes by merge-joining their entries in {@link FileEntry#BY_PATH} order, one entry of
+ * each in hand at a time. Paths present on both sides are compared on the spot. A path only on one side
+ * is a removal or an addition, unless a file with the same size and hash shows up at another path on the
+ * other side, which makes it a move; those candidates are the only thing held until the end, so memory
+ * grows with the number of added and removed files, not with the size of the indexes. An instance runs
+ * one diff.
+ */
+public class IndexDiffService {
+    private static final Logger LOGGER = Logger.getLogger(IndexDiffService.class.getName());
+
+    private record ContentKey(long size, String hash) {
+    }
+
+    private final Map<ContentKey, Deque<FileEntry>> removed = new LinkedHashMap<>();
+    private final Map<ContentKey, Deque<FileEntry>> added = new LinkedHashMap<>();
+    private long unchanged;
+    private long addedCount;
+    private long removedCount;
+    private long modifiedCount;
+    private long movedCount;
+
+    /**
+     * Hands every change to {@code sink}: modifications and unmatched files without a hash as the join
+     * reaches them, then moves, removals and additions once both indexes are exhausted.
+     */
+    public DiffSummary diff(Path oldIndex, Path newIndex, Consumer<IndexChange> sink) {
+        try (IndexReader before = IndexStoreService.openSortedReader(oldIndex);
+             IndexReader after = IndexStoreService.openSortedReader(newIndex)) {
+            boolean compareHashes = before.hashAlgorithm() == after.hashAlgorithm();
+            if (!compareHashes) {
+                LOGGER.warning(String.format("Indexes were hashed with %s and %s; comparing size and mtime only, without move detection",
+                        before.hashAlgorithm().label(), after.hashAlgorithm().label()));
+            }
+
+            FileEntry left = next(oldIndex, before);
+            FileEntry right = next(newIndex, after);
+            while (left != null || right != null) {
+                int order = left == null ? 1 : right == null ? -1 : FileEntry.BY_PATH.compare(left, right);
+                if (order == 0) {
+                    if (modified(left, right, compareHashes)) {
+                        modifiedCount++;
+                        sink.accept(new IndexChange(ChangeType.MODIFIED, left, right));
+                    } else {
+                        unchanged++;
+                    }
+                    left = next(oldIndex, before);
+                    right = next(newIndex, after);
+                } else if (order < 0) {
+                    unmatched(left, ChangeType.REMOVED, compareHashes, sink);
+                    left = next(oldIndex, before);
+                } else {
+                    unmatched(right, ChangeType.ADDED, compareHashes, sink);
+                    right = next(newIndex, after);
+                }
+            }
+        }
+
+        for (Map.Entry<ContentKey, Deque<FileEntry>> group : removed.entrySet()) {
+            Deque<FileEntry> targets = added.get(group.getKey());
+            for (FileEntry source : group.getValue()) {
+                FileEntry target = targets == null ? null : targets.pollFirst();
+                if (target != null) {
+                    movedCount++;
+                    sink.accept(new IndexChange(ChangeType.MOVED, source, target));
+                } else {
+                    removedCount++;
+                    sink.accept(new IndexChange(ChangeType.REMOVED, source, null));
+                }
+            }
+        }
+        for (Deque<FileEntry> group : added.values()) {
+            for (FileEntry target : group) {
+                addedCount++;
+                sink.accept(new IndexChange(ChangeType.ADDED, null, target));
+            }
+        }
+        return new DiffSummary(unchanged, addedCount, removedCount, modifiedCount, movedCount);
+    }
+
+    private static FileEntry next(Path index, IndexReader reader) {
+        if (!reader.hasNext()) {
+            return null;
+        }
+        FileEntry entry = reader.next();
+        IndexStoreService.checkDigest(index, reader.hashAlgorithm(), entry);
+        return entry;
+    }
+
+    /**
+     * Without hashes on both sides, a changed mtime is taken as a change of content, like an incremental scan does.
+     */
+    private static boolean modified(FileEntry before, FileEntry after, boolean compareHashes) {
+        if (before.size() != after.size()) {
+            return true;
+        }
+        if (compareHashes && before.hasHash() && after.hasHash()) {
+            return !before.sha256().equals(after.sha256());
+        }
+        return before.lastModifiedTime() != after.lastModifiedTime();
+    }
+
+    private void unmatched(FileEntry entry, ChangeType type, boolean compareHashes, Consumer<IndexChange> sink) {
+        if (compareHashes && entry.hasHash()) {
+            Map<ContentKey, Deque<FileEntry>> pending = type == ChangeType.REMOVED ? removed : added;
+            pending.computeIfAbsent(new ContentKey(entry.size(), entry.sha256()), key -> new ArrayDeque<>()).addLast(entry);
+            return;
+        }
+        if (type == ChangeType.REMOVED) {
+            removedCount++;
+            sink.accept(new IndexChange(type, entry, null));
+        } else {
+            addedCount++;
+            sink.accept(new IndexChange(type, null, entry));
+        }
+    }
+}
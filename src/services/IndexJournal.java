@@ -0,0 +1,159 @@
+package services;
+
+import model.FileEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Write-ahead log of index changes kept next to the index file as {@code <index>.journal}.
+ * Each change is one line: {@code +\tpath\tsize\tmtimeMillis\tsha256} for an added or modified file and
+ * {@code -\tpath} for a deleted one. Records describe the resulting state rather than the operation, so
+ * replaying a record that the base index already contains is harmless. A full save of the index
+ * truncates the journal, which is how compaction folds it back into the base.
+ */
+public class IndexJournal implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(IndexJournal.class.getName());
+    private static final String UPSERT = "+";
+    private static final String DELETE = "-";
+
+    private final FileChannel channel;
+    private long records;
+
+    public IndexJournal(Path indexFile) throws IOException {
+        Path journalFile = journalFileFor(indexFile);
+        this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.records = countRecords(journalFile);
+    }
+
+    public static Path journalFileFor(Path indexFile) {
+        return indexFile.resolveSibling(indexFile.getFileName() + ".journal");
+    }
+
+    public synchronized void appendUpsert(FileEntry entry) throws IOException {
+        append(String.format("%s\t%s\t%d\t%d\t%s%n", UPSERT, entry.relativePath(), entry.size(), entry.lastModifiedTime(), entry.sha256()));
+    }
+
+    public synchronized void appendDelete(Path relativePath) throws IOException {
+        append(String.format("%s\t%s%n", DELETE, relativePath));
+    }
+
+    /**
+     * Number of records written since the journal was last truncated.
+     */
+    public synchronized long records() {
+        return records;
+    }
+
+    /**
+     * Makes every record appended so far durable.
+     */
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Called after the base index has been rewritten with everything the journal holds.
+     */
+    public synchronized void truncate() throws IOException {
+        channel.truncate(0);
+        channel.force(false);
+        records = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void append(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        records++;
+    }
+
+    /**
+     * Applies the journal next to {@code indexFile}, if there is one, to entries keyed by relative path.
+     * A torn last line from a crash mid-write is ignored.
+     */
+    public static void replay(Path indexFile, Map<Path, FileEntry> entries) {
+        Path journalFile = journalFileFor(indexFile);
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+
+        long applied = 0;
+        try {
+            List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && !endsWithNewline(journalFile)) {
+                LOGGER.warning(String.format("Ignoring incomplete last record in %s", journalFile));
+                lines = lines.subList(0, lines.size() - 1);
+            }
+
+            for (String line : lines) {
+                String[] fields = line.split("\t");
+                if (fields.length == 5 && UPSERT.equals(fields[0])) {
+                    try {
+                        Path relativePath = Path.of(fields[1]);
+                        entries.put(relativePath, new FileEntry(relativePath, Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4]));
+                        applied++;
+                    } catch (NumberFormatException e) {
+                        LOGGER.warning(String.format("Skipping malformed journal record: %s", line));
+                    }
+                } else if (fields.length == 2 && DELETE.equals(fields[0])) {
+                    entries.remove(Path.of(fields[1]));
+                    applied++;
+                } else if (!line.isEmpty()) {
+                    LOGGER.warning(String.format("Skipping malformed journal record: %s", line));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Error while reading journal %s: %s", journalFile, e.getMessage()));
+            System.exit(2);
+        }
+
+        if (applied > 0) {
+            LOGGER.info("Replayed " + applied + " journal records from " + journalFile);
+        }
+    }
+
+    /**
+     * Empties the journal of an index that has just been rewritten in full.
+     */
+    static void discard(Path indexFile) throws IOException {
+        Path journalFile = journalFileFor(indexFile);
+        if (Files.exists(journalFile)) {
+            // Truncate rather than delete so a watcher holding the journal open keeps appending to the same file.
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+            }
+        }
+    }
+
+    private static boolean endsWithNewline(Path journalFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    private static long countRecords(Path journalFile) throws IOException {
+        try (var lines = Files.lines(journalFile, StandardCharsets.UTF_8)) {
+            return lines.filter(line -> !line.isEmpty()).count();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package services;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+
+import java.util.Iterator;
+
+/**
+ * Single pass over the entries of an index. Opened through {@link IndexStoreService#openReader}.
+ */
+public interface IndexReader extends Iterator<FileEntry>, AutoCloseable {
+    String rootPath();
+
+    HashAlgorithm hashAlgorithm();
+
+    /**
+     * True when the entries come in {@link FileEntry#BY_PATH} order, which every index written since the
+     * header started saying so guarantees.
+     */
+    boolean sortedByPath();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,278 @@
+package services;
+
+import model.DuplicateGroup;
+import model.FileEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Answers requests about a watched index over a Unix domain socket, so callers get the live in-memory
+ * index instead of loading the index file themselves. One accept thread hands every connection to its
+ * own virtual thread; requests only take the index's read lock, so they run alongside the watch writer.
+ * <p>
+ * The protocol is line based, UTF-8. A connection sends any number of requests, one per line:
+ * <pre>
+ * lookup PATH   the index line of one file (PATH relative to the root, or absolute below it)
+ * hash HEX      index lines of the files whose hash starts with HEX
+ * dedupe        one line per group of copies: hash, size and the paths, tab separated; files match
+ *               on size and stored hash, from the index alone
+ * dedupe verify the same, but re-reads the candidate files to confirm every match (slow: disk I/O)
+ * stats         watch metrics, one "name value" pair per line
+ * </pre>
+ * Each response is {@code OK n} followed by n lines, or a single {@code ERR message} line.
+ */
+public class IndexServer implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(IndexServer.class.getName());
+    private static final int MIN_HASH_PREFIX = 4;
+
+    private final Path socketPath;
+    private final WatcherService watcher;
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+    private final AtomicLong connections = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Binds the socket; requests are served once {@link #start()} is called. A socket file left behind
+     * by a daemon that is gone is replaced, one that still accepts connections is an error.
+     */
+    public IndexServer(Path socketPath, WatcherService watcher) throws IOException {
+        this.socketPath = socketPath.toAbsolutePath().normalize();
+        this.watcher = watcher;
+        removeStaleSocket(this.socketPath);
+        this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(this.socketPath));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        this.acceptor = new Thread(this::acceptLoop, "filebox-server");
+        acceptor.setDaemon(true);
+    }
+
+    public void start() {
+        acceptor.start();
+        LOGGER.info("Serving index requests on " + socketPath);
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (AsynchronousCloseException e) {
+                break;
+            } catch (IOException e) {
+                LOGGER.warning("Cannot accept connection: " + e.getMessage());
+                continue;
+            }
+            Thread.ofVirtual().name("filebox-client-" + connections.incrementAndGet()).start(() -> serve(client));
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (client;
+             BufferedReader in = new BufferedReader(Channels.newReader(client, StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(Channels.newWriter(client, StandardCharsets.UTF_8), 1 << 16)) {
+            for (String request; (request = in.readLine()) != null; ) {
+                if (request.isBlank()) {
+                    continue;
+                }
+                respond(request.strip(), out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.fine("Connection closed: " + e.getMessage());
+            }
+        }
+    }
+
+    private interface LineWriter {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    /**
+     * The number of lines an answer has and how to write them, so they go straight to the client rather
+     * than through a list of strings.
+     */
+    private record Response(int lines, LineWriter writer) {
+    }
+
+    private void respond(String request, Writer out) throws IOException {
+        Response response;
+        try {
+            response = handle(request);
+        } catch (IllegalArgumentException e) {
+            out.write("ERR " + e.getMessage().replace('\n', ' ') + "\n");
+            return;
+        }
+        out.write("OK " + response.lines() + "\n");
+        response.writer().writeTo(out);
+    }
+
+    private Response handle(String request) {
+        if (!watcher.loaded()) {
+            throw new IllegalArgumentException("Index is still loading");
+        }
+        int space = request.indexOf(' ');
+        String command = space < 0 ? request : request.substring(0, space);
+        String argument = space < 0 ? "" : request.substring(space + 1).strip();
+        return switch (command) {
+            case "lookup" -> lookup(argument);
+            case "hash" -> hash(argument);
+            case "dedupe" -> dedupe(argument);
+            case "stats" -> stats();
+            default -> throw new IllegalArgumentException("Unknown request: " + command);
+        };
+    }
+
+    private Response lookup(String path) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Usage: lookup PATH");
+        }
+        Path relativePath = Path.of(path);
+        if (relativePath.isAbsolute()) {
+            if (!relativePath.normalize().startsWith(watcher.rootPath())) {
+                throw new IllegalArgumentException("Not below the watched root: " + path);
+            }
+            relativePath = watcher.rootPath().relativize(relativePath.normalize());
+        }
+        FileEntry entry = watcher.index().get(relativePath);
+        if (entry == null) {
+            throw new IllegalArgumentException("Not in the index: " + relativePath);
+        }
+        return new Response(1, out -> writeLine(out, entry));
+    }
+
+    private Response hash(String prefix) {
+        if (prefix.length() < MIN_HASH_PREFIX || !prefix.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            throw new IllegalArgumentException("Usage: hash HEX, with at least " + MIN_HASH_PREFIX + " hex digits");
+        }
+        List<FileEntry> matches = watcher.index().withDigestPrefix(prefix);
+        matches.sort(FileEntry.BY_PATH);
+        return new Response(matches.size(), out -> {
+            for (FileEntry entry : matches) {
+                writeLine(out, entry);
+            }
+        });
+    }
+
+    /**
+     * Groups the entries whose size is shared, as picked by the index, by stored hash. Nothing is read
+     * from disk unless the client asks for {@code verify}, which runs the staged dedupe over those
+     * candidates.
+     */
+    private Response dedupe(String argument) {
+        boolean verify = switch (argument) {
+            case "" -> false;
+            case "verify" -> true;
+            default -> throw new IllegalArgumentException("Usage: dedupe [verify]");
+        };
+        List<FileEntry> candidates = watcher.index().withSharedSize();
+
+        List<DuplicateGroup> groups;
+        if (verify) {
+            groups = new DedupeService(true).findDuplicates(watcher.rootPath(), candidates, watcher.hashAlgorithm()).groups();
+        } else {
+            groups = new ArrayList<>();
+            Map<String, List<FileEntry>> byHash = new HashMap<>();
+            for (FileEntry entry : candidates) {
+                byHash.computeIfAbsent(entry.size() + "\t" + entry.sha256(), key -> new ArrayList<>()).add(entry);
+            }
+            for (List<FileEntry> copies : byHash.values()) {
+                if (copies.size() > 1) {
+                    copies.sort(FileEntry.BY_PATH);
+                    groups.add(new DuplicateGroup(copies.getFirst().sha256(), copies.getFirst().size(), copies));
+                }
+            }
+            groups.sort(Comparator.comparingLong(DuplicateGroup::size).reversed().thenComparing(DuplicateGroup::sha256));
+        }
+        return new Response(groups.size(), out -> {
+            for (DuplicateGroup group : groups) {
+                out.write(group.sha256());
+                out.write('\t');
+                out.write(Long.toString(group.size()));
+                for (FileEntry file : group.files()) {
+                    out.write('\t');
+                    out.write(file.relativePath().toString());
+                }
+                out.write('\n');
+            }
+        });
+    }
+
+    private Response stats() {
+        Map<String, Long> stats = watcher.metrics().stats();
+        long connectionCount = connections.get();
+        return new Response(stats.size() + 1, out -> {
+            for (Map.Entry<String, Long> stat : stats.entrySet()) {
+                out.write(stat.getKey() + " " + stat.getValue() + "\n");
+            }
+            out.write("connections " + connectionCount + "\n");
+        });
+    }
+
+    private static void writeLine(Writer out, FileEntry entry) throws IOException {
+        out.write(String.format("%s\t%d\t%d\t%s\n", entry.relativePath(), entry.size(), entry.lastModifiedTime(), entry.sha256()));
+    }
+
+    private static void removeStaleSocket(Path socketPath) throws IOException {
+        if (!Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        boolean live;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketPath)).close();
+            live = true;
+        } catch (IOException e) {
+            live = false;
+        }
+        if (live) {
+            throw new IOException("Another daemon is already serving on " + socketPath);
+        }
+        if (!isSocket(socketPath)) {
+            throw new IOException(socketPath + " exists and is not a socket");
+        }
+        Files.delete(socketPath);
+    }
+
+    /**
+     * A Unix domain socket is neither a file, a directory nor a link to Java.
+     */
+    private static boolean isSocket(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        // Someone may have replaced the socket file with their own since we bound it.
+        if (Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS) && isSocket(socketPath)) {
+            Files.delete(socketPath);
+        }
+    }
+}
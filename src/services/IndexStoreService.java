@@ -1,109 +1,244 @@
 package services;
 
 import model.FileEntry;
+import model.HashAlgorithm;
 import model.IndexData;
+import model.IndexFormat;
 import model.ScanSummary;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 
 public class IndexStoreService {
     private final static Logger LOGGER = Logger.getLogger(IndexStoreService.class.getName());
     private final ScanSummary scanSummary;
     private final String outputPath;
+    private final IndexFormat format;
+    private final HashAlgorithm hashAlgorithm;
 
 
     public IndexStoreService(ScanSummary scanSummary, String outputPath) {
+        this(scanSummary, outputPath, IndexFormat.V1);
+    }
+
+    /**
+     * For entries hashed with SHA-256.
+     */
+    public IndexStoreService(ScanSummary scanSummary, String outputPath, IndexFormat format) {
+        this(scanSummary, outputPath, format, HashAlgorithm.SHA256);
+    }
+
+    public IndexStoreService(ScanSummary scanSummary, String outputPath, IndexFormat format, HashAlgorithm hashAlgorithm) {
         this.scanSummary = scanSummary;
         this.outputPath = outputPath;
+        this.format = format;
+        this.hashAlgorithm = hashAlgorithm;
     }
 
+    /**
+     * Writes the entries in {@link FileEntry#BY_PATH} order, sorting a copy first if they are not.
+     */
     public void save(List<FileEntry> fileEntryList) {
-        Path outputFil = Path.of(outputPath).toAbsolutePath().normalize();
-
-        if (outputFil.endsWith("/") || outputFil.endsWith("\\")) {
-            outputFil = outputFil.resolve("index.txt");
+        List<FileEntry> sorted = fileEntryList;
+        if (!isSortedByPath(fileEntryList)) {
+            sorted = new ArrayList<>(fileEntryList);
+            sorted.sort(FileEntry.BY_PATH);
         }
 
-        if (Files.isDirectory(outputFil) && Files.exists(outputFil)) {
-            outputFil = outputFil.resolve("index.txt");
+        try (IndexWriter writer = openWriter(outputPath, scanSummary.rootPath(), format, hashAlgorithm)) {
+            for (FileEntry fileEntry : sorted) {
+                writer.write(fileEntry);
+            }
+            writer.finish(scanSummary);
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Error while writing index file: %s", e.getMessage()));
+            System.exit(2);
         }
+    }
+
+    /**
+     * Opens a writer for streaming entries into the index at {@code outputPath}. Entries go to a
+     * {@code .tmp} file next to the target, which keeps whatever was written if the process dies;
+     * {@link IndexWriter#finish} moves it over the target, so readers never see a half-written index.
+     * The header records {@code hashAlgorithm}, which every written digest must come from, and declares
+     * the index sorted by path; entries must be written in {@link FileEntry#BY_PATH} order or
+     * {@link IndexWriter#write} fails.
+     */
+    public static IndexWriter openWriter(String outputPath, String rootPath, IndexFormat format, HashAlgorithm hashAlgorithm) throws IOException {
+        Path outputFile = resolveOutputFile(outputPath);
 
-        Path parentDir = outputFil.getParent();
+        Path parentDir = outputFile.getParent();
         if (parentDir != null) {
-            try {
-                Files.createDirectories(parentDir);
-            } catch (IOException e) {
-                LOGGER.warning(String.format("Error while creating directory %s: %s", parentDir, e.getMessage()));
-                System.exit(2);
-            }
+            Files.createDirectories(parentDir);
         }
-        try (BufferedWriter writer = Files.newBufferedWriter(outputFil, StandardCharsets.UTF_8)) {
-            writer.write("# FileBox Index v1.0");
-            writer.newLine();
 
-            writer.write("# rootDir: " + scanSummary.rootPath());
-            writer.newLine();
+        Path tempFile = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+        IndexWriter writer = format == IndexFormat.V2
+                ? new BinaryIndexWriter(tempFile, rootPath, hashAlgorithm)
+                : new TextIndexWriter(tempFile, rootPath, hashAlgorithm);
+        return new ReplacingIndexWriter(writer, tempFile, outputFile);
+    }
+
+    private static final class ReplacingIndexWriter implements IndexWriter {
+        private final IndexWriter delegate;
+        private final Path tempFile;
+        private final Path outputFile;
+        private FileEntry previous;
 
-            writer.write("# generatedAt: " + Instant.now().toString());
-            writer.newLine();
+        private ReplacingIndexWriter(IndexWriter delegate, Path tempFile, Path outputFile) {
+            this.delegate = delegate;
+            this.tempFile = tempFile;
+            this.outputFile = outputFile;
+        }
 
-            writer.write("# fields=relativePath\tsize\tmtimeMillis\tsha256");
-            writer.newLine();
-            writer.newLine();
-            for (FileEntry fileEntry : fileEntryList) {
-                writer.write(String.format("%s\t%d\t%d\t%s", fileEntry.relativePath(), fileEntry.size(), fileEntry.lastModifiedTime(), fileEntry.sha256()));
-                writer.newLine();
+        @Override
+        public void write(FileEntry entry) throws IOException {
+            if (previous != null && FileEntry.BY_PATH.compare(previous, entry) > 0) {
+                throw new IOException(String.format("Index entries out of order: %s after %s", entry.relativePath(), previous.relativePath()));
             }
-            writer.write("======================");
-            writer.newLine();
-            writer.write(String.format("# Summary: files=%d, totalBytes=%d durationMillis=%d ms", scanSummary.totalFiles(), scanSummary.totalBytes(), scanSummary.durationMillis()));
-        } catch (IOException e) {
-            LOGGER.warning(String.format("Error while writing index file: %s", e.getMessage()));
-            System.exit(2);
+            delegate.write(entry);
+            previous = entry;
         }
+
+        @Override
+        public void finish(ScanSummary summary) throws IOException {
+            delegate.finish(summary);
+            delegate.close();
+            Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // The new index already holds everything the journal described.
+            IndexJournal.discard(outputFile);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    public static IndexFormat detectFormat(Path path) {
+        return BinaryIndexReader.isBinaryIndex(path) ? IndexFormat.V2 : IndexFormat.V1;
     }
 
+    /**
+     * Resolves the index file an output argument points at; a directory means {@code index.txt} inside it.
+     */
+    public static Path resolveOutputFile(String outputPath) {
+        Path outputFile = Path.of(outputPath).toAbsolutePath().normalize();
+
+        if (outputFile.endsWith("/") || outputFile.endsWith("\\")) {
+            outputFile = outputFile.resolve("index.txt");
+        }
+
+        if (Files.isDirectory(outputFile) && Files.exists(outputFile)) {
+            outputFile = outputFile.resolve("index.txt");
+        }
+        return outputFile;
+    }
+
+    /**
+     * Loads the index and replays its change journal, if watch mode left one behind. Every stored digest
+     * must have the length of the algorithm the header names; an index that mixes algorithms is rejected.
+     */
     public static IndexData load(Path path) {
-        String rootPath = null;
-        List<FileEntry> entries = new ArrayList<>();
-
-        try (BufferedReader reader = Files.newBufferedReader(path)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("# rootDir:")) {
-                    rootPath = line.substring("# rootDir:".length()).trim();
-                    continue;
-                }
-
-                if (line.startsWith("#") || line.startsWith("=") || line.trim().isEmpty()) {
-                    continue;
-                }
-
-                FileEntry entry = parseLine(line);
-                if (entry != null) {
-                    entries.add(entry);
-                }
+        IndexData base = detectFormat(path) == IndexFormat.V2 ? loadBinary(path) : loadText(path);
+        if (!Files.exists(IndexJournal.journalFileFor(path))) {
+            return checkDigests(path, base);
+        }
+
+        Map<Path, FileEntry> entries = new LinkedHashMap<>();
+        for (FileEntry entry : base.entries()) {
+            entries.put(entry.relativePath(), entry);
+        }
+        IndexJournal.replay(path, entries);
+        // Files the journal added sit at the end of the map; put them back in path order.
+        List<FileEntry> merged = new ArrayList<>(entries.values());
+        merged.sort(FileEntry.BY_PATH);
+        return checkDigests(path, new IndexData(base.path(), merged, base.hashAlgorithm()));
+    }
+
+    private static boolean isSortedByPath(List<FileEntry> entries) {
+        for (int i = 1; i < entries.size(); i++) {
+            if (FileEntry.BY_PATH.compare(entries.get(i - 1), entries.get(i)) > 0) {
+                return false;
             }
+        }
+        return true;
+    }
+
+    private static IndexData checkDigests(Path path, IndexData data) {
+        for (FileEntry entry : data.entries()) {
+            checkDigest(path, data.hashAlgorithm(), entry);
+        }
+        return data;
+    }
+
+    /**
+     * Stops with an error when the entry's hash cannot have come from {@code hashAlgorithm}.
+     */
+    static void checkDigest(Path path, HashAlgorithm hashAlgorithm, FileEntry entry) {
+        if (entry.hasHash() && entry.sha256().length() != hashAlgorithm.hexLength()) {
+            LOGGER.warning(String.format("Index %s is declared %s, but %s has a %d-character hash; rescan it without --incremental",
+                    path, hashAlgorithm.label(), entry.relativePath(), entry.sha256().length()));
+            System.exit(2);
+        }
+    }
+
+    private static IndexData loadText(Path path) {
+        try {
+            IndexData data = TextIndexLoader.load(path);
+            LOGGER.info("Loaded " + data.entries().size() + " entries from " + data.path());
+            return data;
+        } catch (NumberFormatException e) {
+            LOGGER.warning(String.format("Error while parsing line: %s", e.getMessage()));
+            System.exit(2);
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warning("Error: " + e.getMessage());
+            System.exit(2);
+        }
+        return null;
+    }
 
-            if (rootPath == null) {
-                LOGGER.warning("No rootDir in index");
-                System.exit(2);
+    private static IndexData loadBinary(Path path) {
+        try {
+            BinaryIndexReader reader = BinaryIndexReader.open(path);
+            List<FileEntry> entries = new ArrayList<>((int) Math.min(reader.entryCount(), Integer.MAX_VALUE));
+            for (FileEntry entry : reader) {
+                entries.add(entry);
             }
+            LOGGER.info("Loaded " + entries.size() + " entries from " + reader.rootPath());
+            return new IndexData(reader.rootPath(), entries, reader.hashAlgorithm());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warning("Error: " + e.getMessage());
+            System.exit(2);
+        }
+        return null;
+    }
 
-            LOGGER.info("Loaded " + entries.size() + " entries from " + rootPath);
-            return new IndexData(rootPath, entries);
+    /**
+     * Opens the index for a single streaming pass, without holding its entries in memory.
+     * If watch mode left a change journal, the index is loaded in full so the journal can be applied.
+     */
+    public static IndexReader openReader(Path path) {
+        if (Files.exists(IndexJournal.journalFileFor(path))) {
+            IndexData data = load(path);
+            return new IteratorIndexReader(data.path(), data.hashAlgorithm(), true, data.entries().iterator());
+        }
 
+        try {
+            if (detectFormat(path) == IndexFormat.V2) {
+                BinaryIndexReader reader = BinaryIndexReader.open(path);
+                return new IteratorIndexReader(reader.rootPath(), reader.hashAlgorithm(), reader.sortedByPath(), reader.iterator());
+            }
+            return new TextIndexReader(path);
         } catch (IOException e) {
             LOGGER.warning("Error: " + e.getMessage());
             System.exit(2);
@@ -111,19 +246,110 @@ public class IndexStoreService {
         return null;
     }
 
-    private static FileEntry parseLine(String line) {
-        String[] fields = line.split("\t");
-        if (fields.length == 4) {
-            String relativePath = fields[0];
-            String size = fields[1];
-            String mtimeMillis = fields[2];
-            String sha256 = fields[3];
-            try {
-                return new FileEntry(Path.of(relativePath), Long.parseLong(size), Long.parseLong(mtimeMillis), sha256);
-            } catch (NumberFormatException e) {
-                LOGGER.warning(String.format("Error while parsing line: %s", e.getMessage()));
-                System.exit(2);
+    private static final class IteratorIndexReader implements IndexReader {
+        private final String rootPath;
+        private final HashAlgorithm hashAlgorithm;
+        private final boolean sortedByPath;
+        private final Iterator<FileEntry> entries;
+
+        private IteratorIndexReader(String rootPath, HashAlgorithm hashAlgorithm, boolean sortedByPath, Iterator<FileEntry> entries) {
+            this.rootPath = rootPath;
+            this.hashAlgorithm = hashAlgorithm;
+            this.sortedByPath = sortedByPath;
+            this.entries = entries;
+        }
+
+        @Override
+        public String rootPath() {
+            return rootPath;
+        }
+
+        @Override
+        public HashAlgorithm hashAlgorithm() {
+            return hashAlgorithm;
+        }
+
+        @Override
+        public boolean sortedByPath() {
+            return sortedByPath;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public FileEntry next() {
+            return entries.next();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Root and hash algorithm of an index, read from its header alone; the entries list is empty. A change
+     * journal never alters either, so it is not replayed.
+     */
+    public static IndexData readHeader(Path path) {
+        try {
+            if (detectFormat(path) == IndexFormat.V2) {
+                BinaryIndexReader reader = BinaryIndexReader.open(path);
+                return new IndexData(reader.rootPath(), List.of(), reader.hashAlgorithm());
             }
+            try (TextIndexReader reader = new TextIndexReader(path)) {
+                return new IndexData(reader.rootPath(), List.of(), reader.hashAlgorithm());
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Error: " + e.getMessage());
+            System.exit(2);
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #openReader}, but always in {@link FileEntry#BY_PATH} order. An index written before
+     * indexes were kept sorted is loaded and sorted in memory; {@code filebox sort} rewrites it once so
+     * later reads can stream.
+     */
+    public static IndexReader openSortedReader(Path path) {
+        IndexReader reader = openReader(path);
+        if (reader.sortedByPath()) {
+            return reader;
+        }
+        reader.close();
+
+        LOGGER.warning(String.format("Index %s is not sorted by path; sorting it in memory (run 'filebox sort' to rewrite it sorted)", path));
+        IndexData data = load(path);
+        List<FileEntry> sorted = new ArrayList<>(data.entries());
+        sorted.sort(FileEntry.BY_PATH);
+        return new IteratorIndexReader(data.path(), data.hashAlgorithm(), true, sorted.iterator());
+    }
+
+    /**
+     * Opens a v2 index without materializing its entries.
+     */
+    public static BinaryIndexReader openBinary(Path path) {
+        try {
+            return BinaryIndexReader.open(path);
+        } catch (IOException e) {
+            LOGGER.warning("Error: " + e.getMessage());
+            System.exit(2);
+        }
+        return null;
+    }
+
+    /**
+     * Parses the v1 entry line {@code line[from, to)}, or returns null when it is not one.
+     */
+    static FileEntry parseLine(byte[] line, int from, int to) {
+        try {
+            return TextIndexCodec.decode(line, from, to);
+        } catch (NumberFormatException e) {
+            LOGGER.warning(String.format("Error while parsing line: %s", e.getMessage()));
+            System.exit(2);
         }
         return null;
     }
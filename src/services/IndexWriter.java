@@ -0,0 +1,19 @@
+package services;
+
+import model.FileEntry;
+import model.ScanSummary;
+
+import java.io.IOException;
+
+/**
+ * Receives index entries one at a time, so a scan never has to hold the whole index in memory.
+ * The summary is only known at the end and is written by {@link #finish(ScanSummary)}.
+ */
+public interface IndexWriter extends AutoCloseable {
+    void write(FileEntry entry) throws IOException;
+
+    void finish(ScanSummary summary) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,100 @@
+package services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two nanosecond buckets. Recording is a handful of atomic
+ * adds, so it can sit on every stat, hash and write; percentiles are the upper bound of the bucket they
+ * fall in and therefore accurate to within a factor of two, which is enough to tell microseconds from
+ * milliseconds.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    public long meanNanos() {
+        long samples = count();
+        return samples == 0 ? 0 : totalNanos() / samples;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100), capped at the largest value seen.
+     */
+    public long percentileNanos(double percentile) {
+        long samples = count();
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(samples * percentile / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= Math.max(1, rank)) {
+                long upperBound = bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+                return Math.min(upperBound, maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Count, mean, p50, p99 and max in microseconds, keyed {@code <name>.count}, {@code <name>.meanMicros}
+     * and so on.
+     */
+    public Map<String, Long> stats(String name) {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put(name + ".count", count());
+        stats.put(name + ".totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos()));
+        stats.put(name + ".meanMicros", TimeUnit.NANOSECONDS.toMicros(meanNanos()));
+        stats.put(name + ".p50Micros", TimeUnit.NANOSECONDS.toMicros(percentileNanos(50)));
+        stats.put(name + ".p99Micros", TimeUnit.NANOSECONDS.toMicros(percentileNanos(99)));
+        stats.put(name + ".maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos()));
+        return stats;
+    }
+
+    /**
+     * Short human-readable form for log lines, e.g. {@code n=120 mean=35us p99=512us max=880us}.
+     */
+    public String describe() {
+        return String.format("n=%d mean=%dus p99=%dus max=%dus", count(),
+                TimeUnit.NANOSECONDS.toMicros(meanNanos()),
+                TimeUnit.NANOSECONDS.toMicros(percentileNanos(99)),
+                TimeUnit.NANOSECONDS.toMicros(maxNanos()));
+    }
+}
@@ -0,0 +1,82 @@
+package services;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * JMX registration and the {@code <index>.stats} side file shared by scan and watch metrics.
+ * The stats file holds one {@code key=value} pair per line, readable with {@link java.util.Properties}.
+ */
+final class Metrics {
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+    private Metrics() {
+    }
+
+    static Path statsFileFor(Path indexFile) {
+        return indexFile.resolveSibling(indexFile.getFileName() + ".stats");
+    }
+
+    /**
+     * Registers {@code mbean} as {@code filebox:type=<type>}, replacing whatever an earlier run in the
+     * same JVM left there. Metrics are diagnostics, so a failure is logged and otherwise ignored.
+     */
+    static void register(String type, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        } catch (JMException e) {
+            LOGGER.warning(String.format("Cannot register %s metrics over JMX: %s", type, e.getMessage()));
+        }
+    }
+
+    static void unregister(String type) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.warning(String.format("Cannot unregister %s metrics: %s", type, e.getMessage()));
+        }
+    }
+
+    static void writeStats(Path indexFile, String kind, Map<String, Long> stats) {
+        Path statsFile = statsFileFor(indexFile);
+        try (BufferedWriter writer = Files.newBufferedWriter(statsFile, StandardCharsets.UTF_8)) {
+            writer.write("# FileBox " + kind + " stats");
+            writer.newLine();
+            writer.write("# generatedAt: " + Instant.now());
+            writer.newLine();
+            for (Map.Entry<String, Long> stat : stats.entrySet()) {
+                writer.write(stat.getKey() + "=" + stat.getValue());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Cannot write stats file %s: %s", statsFile, e.getMessage()));
+        }
+    }
+
+    static long perSecond(long amount, long elapsedNanos) {
+        return elapsedNanos <= 0 ? 0 : (long) (amount * 1_000_000_000.0 / elapsedNanos);
+    }
+
+    private static ObjectName objectName(String type) throws JMException {
+        return new ObjectName("filebox", "type", type);
+    }
+}
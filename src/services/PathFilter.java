@@ -0,0 +1,155 @@
+package services;
+
+import model.FilterRules;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link FilterRules} compiled for one root. Scan and watch ask it the same two questions: whether to
+ * enter a directory, and whether to index a file. {@link #wrap} puts it in front of a walk so that
+ * excluded directories come back as {@link FileVisitResult#SKIP_SUBTREE} and are never listed.
+ */
+public class PathFilter {
+    private final Path root;
+    private final FilterRules rules;
+    private final List<PathMatcher> includeNames = new ArrayList<>();
+    private final List<PathMatcher> includePaths = new ArrayList<>();
+    private final List<PathMatcher> excludeNames = new ArrayList<>();
+    private final List<PathMatcher> excludePaths = new ArrayList<>();
+    private final LongAdder prunedDirectories = new LongAdder();
+    private final LongAdder skippedFiles = new LongAdder();
+
+    public PathFilter(Path root, FilterRules rules) {
+        this.root = root;
+        this.rules = rules;
+        compile(rules.includes(), includeNames, includePaths);
+        compile(rules.excludes(), excludeNames, excludePaths);
+    }
+
+    private static void compile(List<String> patterns, List<PathMatcher> names, List<PathMatcher> paths) {
+        for (String pattern : patterns) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher(FilterRules.syntaxAndPattern(pattern));
+            (FilterRules.matchesName(pattern) ? names : paths).add(matcher);
+        }
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Whether a walk should list {@code directory}, an absolute path under the root. The root itself is
+     * always entered; a directory at {@code maxDepth} is not, as everything in it would be too deep.
+     */
+    public boolean entersDirectory(Path directory) {
+        if (directory.equals(root)) {
+            return true;
+        }
+        Path relativePath = root.relativize(directory);
+        boolean enters = relativePath.getNameCount() < rules.maxDepth() && !excluded(relativePath);
+        if (!enters) {
+            prunedDirectories.increment();
+        }
+        return enters;
+    }
+
+    /**
+     * Whether {@code file}, an absolute path under the root, belongs in the index. Its directories are
+     * checked as well, for files reported by events rather than reached by a walk. A negative size
+     * skips the size bounds.
+     */
+    public boolean acceptsFile(Path file, long size) {
+        Path relativePath = root.relativize(file);
+        for (Path parent = relativePath.getParent(); parent != null; parent = parent.getParent()) {
+            if (excluded(parent)) {
+                skippedFiles.increment();
+                return false;
+            }
+        }
+        return accepts(relativePath, size);
+    }
+
+    private boolean accepts(Path relativePath, long size) {
+        boolean accepted = relativePath.getNameCount() <= rules.maxDepth()
+                && !excluded(relativePath)
+                && (includeNames.isEmpty() && includePaths.isEmpty() || included(relativePath))
+                && (size < 0 || size >= rules.minSize() && size <= rules.maxSize());
+        if (!accepted) {
+            skippedFiles.increment();
+        }
+        return accepted;
+    }
+
+    private boolean excluded(Path relativePath) {
+        return matchesAny(excludeNames, relativePath.getFileName()) || matchesAny(excludePaths, relativePath);
+    }
+
+    private boolean included(Path relativePath) {
+        return matchesAny(includeNames, relativePath.getFileName()) || matchesAny(includePaths, relativePath);
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long prunedDirectories() {
+        return prunedDirectories.sum();
+    }
+
+    public long skippedFiles() {
+        return skippedFiles.sum();
+    }
+
+    /**
+     * {@code visitor} seeing only what the rules let through. Directories it would not enter are skipped
+     * before they are read; files are checked against the rules on the attributes the walk already has.
+     */
+    public FileVisitor<Path> wrap(FileVisitor<Path> visitor) {
+        return new FileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                return entersDirectory(dir) ? visitor.preVisitDirectory(dir, attrs) : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                // The directories above were checked on the way down; a symbolic link is sized by its target.
+                long size = attrs.isSymbolicLink() ? targetSize(file) : attrs.size();
+                return accepts(root.relativize(file), size) ? visitor.visitFile(file, attrs) : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                return visitor.visitFileFailed(file, e);
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                return visitor.postVisitDirectory(dir, e);
+            }
+        };
+    }
+
+    private static long targetSize(Path link) {
+        try {
+            return Files.size(link);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package services;
+
+import model.FileEntry;
+import model.IndexData;
+import model.Query;
+import model.QuerySort;
+import model.QueryStats;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Answers {@link Query} filters over a loaded index without scanning it. Entries are numbered once and
+ * kept in sorted {@code int[]} orders by path, size, mtime, extension and hash; every filter on one of
+ * those keys is a binary search for a contiguous range. A query walks the smallest range it has and
+ * checks the remaining filters (and any glob) on each entry there, so it costs O(log n + k) where k is
+ * the size of that range.
+ */
+public class QueryService {
+    private static final Logger LOGGER = Logger.getLogger(QueryService.class.getName());
+
+    private record Range(String index, int[] order, int from, int to, QuerySort sortedBy) {
+        int size() {
+            return to - from;
+        }
+    }
+
+    private final FileEntry[] entries;
+    private final String[] paths;
+    private final String[] extensions;
+    private final int[] pathRank;
+    private final int[] byPath;
+    private final int[] bySize;
+    private final long[] sortedSizes;
+    private final int[] byMtime;
+    private final long[] sortedMtimes;
+    private final int[] byExtension;
+    private final int[] byHash;
+
+    public QueryService(IndexData data) {
+        int count = data.entries().size();
+        this.entries = data.entries().toArray(FileEntry[]::new);
+        this.paths = new String[count];
+        this.extensions = new String[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = entries[i].relativePath().toString();
+            extensions[i] = extensionOf(entries[i]);
+        }
+
+        this.byPath = sortedOrder(Comparator.comparing(i -> paths[i]));
+        this.pathRank = new int[count];
+        for (int rank = 0; rank < count; rank++) {
+            pathRank[byPath[rank]] = rank;
+        }
+        // Ties are broken by path so every range of equal keys is itself in path order.
+        this.bySize = sortedOrder(Comparator.<Integer>comparingLong(i -> entries[i].size()).thenComparingInt(i -> pathRank[i]));
+        this.byMtime = sortedOrder(Comparator.<Integer>comparingLong(i -> entries[i].lastModifiedTime()).thenComparingInt(i -> pathRank[i]));
+        this.byExtension = sortedOrder(Comparator.<Integer, String>comparing(i -> extensions[i]).thenComparingInt(i -> pathRank[i]));
+        this.byHash = sortedOrder(Comparator.<Integer, String>comparing(i -> entries[i].sha256()).thenComparingInt(i -> pathRank[i]));
+        this.sortedSizes = Arrays.stream(bySize).mapToLong(i -> entries[i].size()).toArray();
+        this.sortedMtimes = Arrays.stream(byMtime).mapToLong(i -> entries[i].lastModifiedTime()).toArray();
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Hands every match to {@code sink} in the requested order, up to the limit. When the chosen range
+     * is already in that order the matches stream straight out and the walk stops at the limit;
+     * otherwise the matches of the range are collected and sorted first.
+     */
+    public QueryStats run(Query query, Consumer<FileEntry> sink) {
+        Range range = plan(query);
+        PathMatcher glob = query.glob() == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + query.glob());
+        LOGGER.fine(String.format("Query uses the %s index: %d of %d entries", range.index(), range.size(), entries.length));
+
+        long matched = 0;
+        if (range.sortedBy() == query.sort()) {
+            for (int step = 0; step < range.size() && matched < query.limit(); step++) {
+                int position = query.descending() ? range.to() - 1 - step : range.from() + step;
+                int entry = range.order()[position];
+                if (matches(entry, query, glob)) {
+                    sink.accept(entries[entry]);
+                    matched++;
+                }
+            }
+            return new QueryStats(range.index(), range.size(), matched);
+        }
+
+        List<Integer> found = new ArrayList<>();
+        for (int position = range.from(); position < range.to(); position++) {
+            int entry = range.order()[position];
+            if (matches(entry, query, glob)) {
+                found.add(entry);
+            }
+        }
+        Comparator<Integer> order = switch (query.sort()) {
+            case PATH -> Comparator.comparingInt(i -> pathRank[i]);
+            case SIZE -> Comparator.<Integer>comparingLong(i -> entries[i].size()).thenComparingInt(i -> pathRank[i]);
+            case MTIME -> Comparator.<Integer>comparingLong(i -> entries[i].lastModifiedTime()).thenComparingInt(i -> pathRank[i]);
+        };
+        found.sort(query.descending() ? order.reversed() : order);
+        for (int entry : found) {
+            if (matched >= query.limit()) {
+                break;
+            }
+            sink.accept(entries[entry]);
+            matched++;
+        }
+        return new QueryStats(range.index(), range.size(), matched);
+    }
+
+    /**
+     * Picks the narrowest range among the indexed filters. On a tie the range already sorted the way
+     * the output must be wins, which is what lets an unfiltered "largest first" query stop at the limit.
+     */
+    private Range plan(Query query) {
+        List<Range> candidates = new ArrayList<>();
+        candidates.add(prefixRange("path", byPath, i -> paths[i], literalPrefix(query.glob()), QuerySort.PATH));
+        if (query.hasSizeRange() || query.sort() == QuerySort.SIZE) {
+            candidates.add(longRange("size", bySize, sortedSizes, query.minSize(), query.maxSize(), QuerySort.SIZE));
+        }
+        if (query.hasMtimeRange() || query.sort() == QuerySort.MTIME) {
+            candidates.add(longRange("mtime", byMtime, sortedMtimes, query.modifiedFrom(), query.modifiedTo(), QuerySort.MTIME));
+        }
+        if (query.extension() != null) {
+            String extension = query.extension();
+            int from = partitionPoint(byExtension, i -> extensions[i].compareTo(extension) < 0);
+            int to = partitionPoint(byExtension, i -> extensions[i].compareTo(extension) <= 0);
+            candidates.add(new Range("extension", byExtension, from, to, QuerySort.PATH));
+        }
+        if (query.hashPrefix() != null) {
+            candidates.add(prefixRange("hash", byHash, i -> entries[i].sha256(), query.hashPrefix(), null));
+        }
+
+        Range best = candidates.getFirst();
+        for (Range candidate : candidates) {
+            if (candidate.size() < best.size()
+                    || (candidate.size() == best.size() && candidate.sortedBy() == query.sort() && best.sortedBy() != query.sort())) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private boolean matches(int entry, Query query, PathMatcher glob) {
+        FileEntry file = entries[entry];
+        return file.size() >= query.minSize() && file.size() <= query.maxSize()
+                && file.lastModifiedTime() >= query.modifiedFrom() && file.lastModifiedTime() <= query.modifiedTo()
+                && (query.extension() == null || query.extension().equals(extensions[entry]))
+                && (query.hashPrefix() == null || file.sha256().startsWith(query.hashPrefix()))
+                && (glob == null || glob.matches(file.relativePath()));
+    }
+
+    private static Range longRange(String index, int[] order, long[] sortedKeys, long min, long max, QuerySort sortedBy) {
+        int from = lowerBound(sortedKeys, min);
+        int to = max == Long.MAX_VALUE ? sortedKeys.length : lowerBound(sortedKeys, max + 1);
+        return new Range(index, order, from, to, sortedBy);
+    }
+
+    private Range prefixRange(String index, int[] order, IntFunction<String> key, String prefix, QuerySort sortedBy) {
+        // Keys starting with the prefix sit in one block right after the keys that sort below it.
+        int from = partitionPoint(order, i -> key.apply(i).compareTo(prefix) < 0);
+        int to = partitionPoint(order, i -> key.apply(i).compareTo(prefix) < 0 || key.apply(i).startsWith(prefix));
+        return new Range(index, order, from, to, sortedBy);
+    }
+
+    /**
+     * First position in {@code order} whose entry fails {@code below}, for a predicate that holds for a
+     * prefix of the order and not after it.
+     */
+    private static int partitionPoint(int[] order, IntPredicate below) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (below.test(order[middle])) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(long[] sortedKeys, long value) {
+        int low = 0;
+        int high = sortedKeys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedKeys[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int[] sortedOrder(Comparator<Integer> comparator) {
+        return IntStream.range(0, entries.length).boxed().sorted(comparator).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The part of a glob before its first special character; every match starts with it.
+     */
+    private static String literalPrefix(String glob) {
+        if (glob == null) {
+            return "";
+        }
+        for (int i = 0; i < glob.length(); i++) {
+            if ("*?[{\\".indexOf(glob.charAt(i)) >= 0) {
+                return glob.substring(0, i);
+            }
+        }
+        return glob;
+    }
+
+    private static String extensionOf(FileEntry entry) {
+        String name = entry.relativePath().getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        // A leading dot marks a hidden file, not an extension.
+        return dot <= 0 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+}
@@ -0,0 +1,191 @@
+package services;
+
+import model.ReadSchedule;
+import model.SchedulerReport;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which file a scan worker reads next. The walker adds files in walk order; consecutive files
+ * of one directory form a batch, which is released smallest file first once the walk leaves the
+ * directory or the batch is full. Batches go out in the order they were formed, so reads stay within
+ * one directory at a time instead of jumping around the disk, and the many small files of a directory
+ * finish before its large ones tie up the workers.
+ * <p>
+ * A worker only starts a file while fewer than the concurrency limit are being read and the file fits
+ * in the bytes-in-flight budget. With an adaptive schedule the limit hill-climbs: every sample window
+ * it moves one step in its current direction while throughput keeps up, and turns around when
+ * throughput drops. Because batches go out smallest first, bytes per second climb within a batch just
+ * from files getting larger; a window is therefore only compared with the last one when their mean
+ * file sizes are close, and otherwise becomes the new baseline without moving the limit.
+ *
+ * @param <T> what the scan tracks per file
+ */
+final class ReadScheduler<T> {
+    // A sample must cover both this long and this many files before the limit moves.
+    private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int SAMPLE_FILES = 16;
+    // Throughput within this fraction of the last sample counts as keeping up.
+    private static final double TOLERANCE = 0.05;
+    // Samples whose mean file sizes differ by more than this factor are not compared.
+    private static final double MAX_SIZE_RATIO = 2.0;
+
+    private record Job<T>(T item, long size) {
+    }
+
+    private final int workers;
+    private final int batchLimit;
+    private final ReadSchedule schedule;
+    private final TokenBucket bandwidth;
+    private final Deque<Job<T>> ready = new ArrayDeque<>();
+    private final List<Job<T>> batch = new ArrayList<>();
+    private Path batchDirectory;
+    private boolean finished;
+    private long batches;
+
+    private int limit;
+    private int active;
+    private long bytesInFlight;
+    private long peakBytesInFlight;
+
+    private final int initialLimit;
+    private int minLimit;
+    private int maxLimit;
+    private long adjustments;
+    private int direction = 1;
+    private double lastThroughput;
+    private double lastMeanSize;
+    private long sampleStart = System.nanoTime();
+    private long sampleBytes;
+    private int sampleFiles;
+
+    /**
+     * {@code batchLimit} must be below the number of files the walker may have outstanding, or a batch
+     * could wait for files that cannot be added until it is released.
+     */
+    ReadScheduler(int workers, int batchLimit, ReadSchedule schedule, TokenBucket bandwidth) {
+        this.workers = workers;
+        this.batchLimit = Math.max(1, batchLimit);
+        this.schedule = schedule;
+        this.bandwidth = bandwidth;
+        // Start halfway so the first samples can show whether more or fewer readers pay off.
+        this.limit = schedule.adaptive() ? Math.max(1, (workers + 1) / 2) : workers;
+        this.initialLimit = limit;
+        this.minLimit = limit;
+        this.maxLimit = limit;
+    }
+
+    synchronized void add(T item, Path directory, long size) {
+        if (!batch.isEmpty() && (!directory.equals(batchDirectory) || batch.size() >= batchLimit)) {
+            release();
+        }
+        batchDirectory = directory;
+        batch.add(new Job<>(item, size));
+    }
+
+    /**
+     * Hands the files added so far to the workers. The walker calls this before it blocks, so workers
+     * never sit idle on files it is holding back.
+     */
+    synchronized void release() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batch.sort(Comparator.comparingLong(Job::size));
+        ready.addAll(batch);
+        batch.clear();
+        batches++;
+        notifyAll();
+    }
+
+    synchronized void finish() {
+        release();
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the next file may be read and returns it, or null once the walk is finished and every
+     * file has been handed out. {@link #done} must be called with the item's size once it is read.
+     */
+    synchronized T next() throws InterruptedException {
+        while (true) {
+            Job<T> head = ready.peekFirst();
+            if (head == null && finished) {
+                return null;
+            }
+            if (head != null && active < limit && fits(head.size())) {
+                ready.removeFirst();
+                active++;
+                bytesInFlight += budgeted(head.size());
+                peakBytesInFlight = Math.max(peakBytesInFlight, bytesInFlight);
+                return head.item();
+            }
+            wait();
+        }
+    }
+
+    synchronized void done(long size) {
+        active--;
+        bytesInFlight -= budgeted(size);
+        sampleBytes += size;
+        sampleFiles++;
+        if (schedule.adaptive()) {
+            adapt();
+        }
+        notifyAll();
+    }
+
+    private boolean fits(long size) {
+        // A file larger than the whole budget runs once nothing else is in flight.
+        return bytesInFlight == 0 || bytesInFlight + budgeted(size) <= schedule.maxBytesInFlight();
+    }
+
+    private long budgeted(long size) {
+        return Math.min(size, schedule.maxBytesInFlight());
+    }
+
+    private void adapt() {
+        long now = System.nanoTime();
+        long elapsed = now - sampleStart;
+        if (elapsed < SAMPLE_NANOS || sampleFiles < SAMPLE_FILES) {
+            return;
+        }
+        double throughput = sampleBytes / (elapsed / 1e9);
+        double meanSize = Math.max(1.0, (double) sampleBytes / sampleFiles);
+        boolean comparable = lastThroughput > 0
+                && Math.max(meanSize, lastMeanSize) <= Math.min(meanSize, lastMeanSize) * MAX_SIZE_RATIO;
+        if (comparable || lastThroughput == 0) {
+            if (comparable && throughput < lastThroughput * (1 - TOLERANCE)) {
+                direction = -direction;
+            }
+            int next = Math.clamp(limit + direction, 1, workers);
+            if (next == limit) {
+                // At a bound: probe the other way next time.
+                direction = -direction;
+            } else {
+                limit = next;
+                adjustments++;
+                minLimit = Math.min(minLimit, limit);
+                maxLimit = Math.max(maxLimit, limit);
+            }
+        }
+        lastThroughput = throughput;
+        lastMeanSize = meanSize;
+        sampleStart = now;
+        sampleBytes = 0;
+        sampleFiles = 0;
+    }
+
+    synchronized SchedulerReport report() {
+        return new SchedulerReport(workers, batches, schedule.maxBytesInFlight(), peakBytesInFlight,
+                schedule.bandwidth(), bandwidth != null ? bandwidth.waitedMillis() : 0, schedule.adaptive(),
+                initialLimit, minLimit, maxLimit, limit, adjustments);
+    }
+}
@@ -0,0 +1,167 @@
+package services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one scan. Workers record into them concurrently; JMX clients and
+ * the final stats block read them. The split between {@code hash.readMillis} and
+ * {@code hash.digestMillis} says whether the scan waited on the disk or on the CPU.
+ */
+public class ScanMetrics implements ScanMetricsMBean {
+    static final String JMX_TYPE = "Scan";
+
+    private final FileHasher hasher;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LatencyHistogram stat = new LatencyHistogram();
+    private final LatencyHistogram hash = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+
+    public ScanMetrics(FileHasher hasher) {
+        this.hasher = hasher;
+    }
+
+    void recordFile(long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    LatencyHistogram stat() {
+        return stat;
+    }
+
+    LatencyHistogram hash() {
+        return hash;
+    }
+
+    LatencyHistogram write() {
+        return write;
+    }
+
+    /**
+     * Freezes the elapsed time so rates stay put once the scan is done.
+     */
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    private long elapsedNanos() {
+        long end = endNanos;
+        return (end == 0 ? System.nanoTime() : end) - startNanos;
+    }
+
+    @Override
+    public long getFilesScanned() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytesScanned() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return hasher.hashedBytes();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos());
+    }
+
+    @Override
+    public long getFilesPerSecond() {
+        return Metrics.perSecond(getFilesScanned(), elapsedNanos());
+    }
+
+    @Override
+    public long getHashedBytesPerSecond() {
+        return Metrics.perSecond(getBytesHashed(), elapsedNanos());
+    }
+
+    @Override
+    public long getStatCount() {
+        return stat.count();
+    }
+
+    @Override
+    public long getStatMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(stat.meanNanos());
+    }
+
+    @Override
+    public long getStatP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(stat.percentileNanos(99));
+    }
+
+    @Override
+    public long getHashCount() {
+        return hash.count();
+    }
+
+    @Override
+    public long getHashMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(hash.meanNanos());
+    }
+
+    @Override
+    public long getHashP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(hash.percentileNanos(99));
+    }
+
+    @Override
+    public long getWriteCount() {
+        return write.count();
+    }
+
+    @Override
+    public long getWriteMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(write.meanNanos());
+    }
+
+    @Override
+    public long getWriteP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(write.percentileNanos(99));
+    }
+
+    @Override
+    public long getHashReadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(hasher.readNanos());
+    }
+
+    @Override
+    public long getHashDigestMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(hasher.digestNanos());
+    }
+
+    /**
+     * Everything above as a flat, ordered map; the content of the {@code .stats} file.
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("files", getFilesScanned());
+        stats.put("bytes", getBytesScanned());
+        stats.put("bytesHashed", getBytesHashed());
+        stats.put("elapsedMillis", getElapsedMillis());
+        stats.put("filesPerSecond", getFilesPerSecond());
+        stats.put("hashedBytesPerSecond", getHashedBytesPerSecond());
+        stats.putAll(stat.stats("stat"));
+        stats.putAll(hash.stats("hash"));
+        stats.put("hash.readMillis", getHashReadMillis());
+        stats.put("hash.digestMillis", getHashDigestMillis());
+        stats.putAll(write.stats("write"));
+        return stats;
+    }
+
+    public String describe() {
+        return String.format("stat %s; hash %s (read %d ms, digest %d ms); write %s; %d files/s, %d MB/s hashed",
+                stat.describe(), hash.describe(), getHashReadMillis(), getHashDigestMillis(), write.describe(),
+                getFilesPerSecond(), getHashedBytesPerSecond() / 1_000_000);
+    }
+}
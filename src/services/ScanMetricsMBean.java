@@ -0,0 +1,40 @@
+package services;
+
+/**
+ * Live view of a running scan, published as {@code filebox:type=Scan}. Latencies are in microseconds.
+ */
+public interface ScanMetricsMBean {
+    long getFilesScanned();
+
+    long getBytesScanned();
+
+    long getBytesHashed();
+
+    long getElapsedMillis();
+
+    long getFilesPerSecond();
+
+    long getHashedBytesPerSecond();
+
+    long getStatCount();
+
+    long getStatMeanMicros();
+
+    long getStatP99Micros();
+
+    long getHashCount();
+
+    long getHashMeanMicros();
+
+    long getHashP99Micros();
+
+    long getWriteCount();
+
+    long getWriteMeanMicros();
+
+    long getWriteP99Micros();
+
+    long getHashReadMillis();
+
+    long getHashDigestMillis();
+}
@@ -1,50 +1,136 @@
 package services;
 
 import model.FileEntry;
+import model.HashResult;
+import model.ScanOptions;
 import model.ScanSummary;
+import model.SchedulerReport;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
-import java.util.HexFormat;
-import java.util.List;
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 
 public class ScannerService {
+    private record WorkItem(long sequence, Path file, long size, FileEntry previous) {
+    }
+
     private final Path userAbsolutePath;
+    private final PathFilter filter;
     private final String outputPath;
+    private final ScanOptions options;
+    private final TokenBucket bandwidth;
+    private final FileHasher fileHasher;
+    private final ScanMetrics metrics;
+    private final ThreadLocal<GearChunker> chunkers;
+    // Set for the duration of a scan with --chunks.
+    private ChunkIndexWriter chunkWriter;
+    // What the read scheduler did in the last concurrent scan.
+    private SchedulerReport schedulerReport;
+    // Open for the duration of an incremental scan that has a usable previous index.
+    private PreviousEntries previousEntries;
+    private final LongAdder reusedFiles = new LongAdder();
+    private final LongAdder rehashedFiles = new LongAdder();
+    private final LongAdder addedFiles = new LongAdder();
+    // Only touched by whoever holds the writer, so plain fields are enough.
+    private long totalFiles;
+    private long totalBytes;
     private final static Logger LOGGER = Logger.getLogger(ScannerService.class.getName());
 
     public ScannerService(String path, String outputPath) {
+        this(path, outputPath, ScanOptions.defaults());
+    }
+
+    public ScannerService(String path, String outputPath, ScanOptions options) {
         this.outputPath = outputPath;
+        this.options = options;
+        this.bandwidth = options.readSchedule().throttled() ? new TokenBucket(options.readSchedule().bandwidth()) : null;
+        this.fileHasher = new FileHasher(options.hashAlgorithm(), FileHasher.DEFAULT_MAPPING_THRESHOLD, bandwidth);
+        this.metrics = new ScanMetrics(fileHasher);
+        this.chunkers = ThreadLocal.withInitial(() -> new GearChunker(options.chunkSize()));
         Path convertToPath = Path.of(path);
         Path absolutePath = convertToPath.toAbsolutePath().normalize();
 
         checkPath(absolutePath);
         this.userAbsolutePath = absolutePath;
+        this.filter = new PathFilter(absolutePath, options.filterRules());
     }
 
+    /**
+     * Walks the tree and streams each entry to the index as soon as it is ready, in relative path order.
+     * Memory stays bounded by the queue capacity however large the tree is; the summary footer is
+     * written once the walk is done.
+     */
     public ScanSummary scan() {
         if (Files.isDirectory(userAbsolutePath)) {
             LOGGER.info(String.format("Scanning directory: %s", userAbsolutePath));
 
             Instant start = Instant.now();
-            List<FileEntry> files = exploreDirectory(userAbsolutePath);
-            Instant end = Instant.now();
-            long duration = end.toEpochMilli() - start.toEpochMilli();
+            Metrics.register(ScanMetrics.JMX_TYPE, metrics);
+            if (options.incremental()) {
+                previousEntries = openPreviousIndex();
+            }
+
+            Path indexFile = IndexStoreService.resolveOutputFile(outputPath);
+            try (IndexWriter writer = IndexStoreService.openWriter(outputPath, userAbsolutePath.toString(), options.format(), options.hashAlgorithm());
+                 ChunkIndexWriter chunks = options.chunking() ? openChunkWriter(indexFile) : null) {
+                this.chunkWriter = chunks;
+                exploreDirectory(userAbsolutePath, writer);
+                if (!filter.isEmpty()) {
+                    LOGGER.info(String.format("Filter rules pruned %d directories and skipped %d files",
+                            filter.prunedDirectories(), filter.skippedFiles()));
+                }
+                Instant end = Instant.now();
+                long duration = end.toEpochMilli() - start.toEpochMilli();
 
-            long totalBytes = files.stream().mapToLong(FileEntry::size).sum();
-            long totalFiles = files.size();
+                ScanSummary summary;
+                if (options.incremental()) {
+                    long reused = reusedFiles.sum();
+                    long rehashed = rehashedFiles.sum();
+                    // Every previous entry is matched at most once, so whatever was not matched is gone.
+                    long removed = previousEntries != null ? previousEntries.finish() - reused - rehashed : 0;
+                    summary = new ScanSummary(userAbsolutePath.toString(), totalBytes, totalFiles, duration,
+                            reused, rehashed, addedFiles.sum(), removed);
+                } else {
+                    summary = new ScanSummary(userAbsolutePath.toString(), totalBytes, totalFiles, duration);
+                }
+                summary = summary.withScheduler(schedulerReport);
 
-            new IndexStoreService(new ScanSummary(userAbsolutePath.toString(), totalBytes, totalFiles, duration), outputPath).save(files);
-            return new ScanSummary(userAbsolutePath.toString(), totalBytes, totalFiles, duration);
+                writer.finish(summary);
+                if (chunks != null) {
+                    chunks.finish();
+                    LOGGER.info(String.format("Split %d files into %d chunks", chunks.files(), chunks.chunks()));
+                } else {
+                    ChunkIndexWriter.deleteStale(indexFile);
+                }
+                metrics.finish();
+                Metrics.writeStats(IndexStoreService.resolveOutputFile(outputPath), "scan", metrics.stats());
+                return summary;
+            } catch (IOException e) {
+                LOGGER.warning(String.format("Error while writing index file: %s", e.getMessage()));
+                System.exit(2);
+            } finally {
+                if (previousEntries != null) {
+                    previousEntries.close();
+                    previousEntries = null;
+                }
+                this.chunkWriter = null;
+                Metrics.unregister(ScanMetrics.JMX_TYPE);
+            }
 
         } else {
             LOGGER.info(String.format("Scanning file: %s", userAbsolutePath));
@@ -52,6 +138,21 @@ public class ScannerService {
         return null;
     }
 
+    private ChunkIndexWriter openChunkWriter(Path indexFile) throws IOException {
+        GearChunker chunker = chunkers.get();
+        if (options.incremental()) {
+            LOGGER.info("Chunking reads every file, so --incremental reuses no hashes");
+        }
+        return new ChunkIndexWriter(indexFile, chunker.minSize(), chunker.averageSize(), chunker.maxSize());
+    }
+
+    /**
+     * Metrics of the last (or current) scan; also published over JMX while the scan runs.
+     */
+    public ScanMetrics metrics() {
+        return metrics;
+    }
+
     private void checkPath(Path path) {
         if (!Files.exists(path)) {
             LOGGER.warning("Path does not exist");
@@ -60,49 +161,317 @@ public class ScannerService {
         }
     }
 
-    private List<FileEntry> exploreDirectory(Path path) {
+    private void exploreDirectory(Path path, IndexWriter writer) {
         LOGGER.info(String.format("Exploring directory: %s", path));
-        try (Stream<Path> walk = Files.walk(path)) {
-            return walk
-                    .filter(Files::isRegularFile)
-                    .map(this::addMetaData)
-                    .filter(Objects::nonNull)
-                    .toList();
+        if (options.concurrent()) {
+            exploreDirectoryConcurrently(path, writer);
+            return;
+        }
+        walk(path, (file, size) -> {
+            FileEntry entry = addMetaData(file, previousEntry(file));
+            if (entry != null) {
+                emit(writer, entry);
+            }
+        });
+    }
+
+    /**
+     * Walks the tree on the calling thread and hands regular files to a pool of hashing workers through
+     * a {@link ReadScheduler}, which picks the order they are read in. Each file gets a sequence number
+     * in walk order and results are written in that order, whatever order the workers finish in. At most
+     * {@code queueCapacity} files are scheduled, being hashed or waiting for an earlier file at any time.
+     */
+    private void exploreDirectoryConcurrently(Path path, IndexWriter writer) {
+        int workers = options.workers();
+        LOGGER.info(String.format("Using %d hashing workers (queue capacity %d)", workers, options.queueCapacity()));
+
+        // Batches stay below the queue capacity, so the walker can always complete one.
+        ReadScheduler<WorkItem> scheduler = new ReadScheduler<>(workers, Math.max(1, options.queueCapacity() / 2),
+                options.readSchedule(), bandwidth);
+        OrderedSink sink = new OrderedSink(writer, new Semaphore(options.queueCapacity()));
+        AtomicInteger workerIds = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(workers,
+                runnable -> new Thread(runnable, "filebox-hasher-" + workerIds.incrementAndGet()))) {
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> hashScheduled(scheduler, sink));
+            }
+
+            long[] sequence = {0};
+            try {
+                walk(path, (file, size) -> {
+                    if (!sink.tryReserve()) {
+                        // The window is full: let the workers have the batch being built before waiting.
+                        scheduler.release();
+                        sink.reserve();
+                    }
+                    scheduler.add(new WorkItem(sequence[0]++, file, size, previousEntry(file)), file.getParent(), size);
+                });
+            } finally {
+                scheduler.finish();
+            }
+        }
+        schedulerReport = scheduler.report();
+    }
+
+    private void walk(Path path, ObjLongConsumer<Path> onFile) {
+        try {
+            SortedTreeWalker.walk(path, filter.wrap(new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // Follows symbolic links to files, as Files.isRegularFile does, but never into directories.
+                    if (attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(file))) {
+                        onFile.accept(file, attrs.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOGGER.warning(String.format("Error while reading %s: %s", file, e.getMessage()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    if (e != null) {
+                        LOGGER.warning(String.format("Error while exploring directory %s: %s", dir, e.getMessage()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            }));
         } catch (IOException e) {
             LOGGER.warning(String.format("Error while exploring directory %s: %s", path, e.getMessage()));
             System.exit(2);
         }
-        return null;
     }
 
-    private FileEntry addMetaData(Path filePath) {
+    private void emit(IndexWriter writer, FileEntry entry) {
         try {
-            long size = Files.size(filePath);
-            FileTime lastModifiedTime = Files.getLastModifiedTime(filePath);
-            Path relativePath = this.userAbsolutePath.relativize(filePath).normalize();
-            String sha256 = calculateSHA256(filePath);
-
-            return new FileEntry(relativePath, size, lastModifiedTime.toMillis(), sha256);
+            long start = System.nanoTime();
+            writer.write(entry);
+            metrics.write().recordSince(start);
+            metrics.recordFile(entry.size());
+            totalFiles++;
+            totalBytes += entry.size();
         } catch (IOException e) {
-            LOGGER.warning(String.format("Error while reading file %s: %s", filePath, e.getMessage()));
+            LOGGER.warning(String.format("Error while writing index file: %s", e.getMessage()));
+            System.exit(2);
         }
-        return null;
     }
 
-    private String calculateSHA256(Path filePath) {
-        try(BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(filePath))) {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    /**
+     * Reorder buffer between the workers and the writer. A finished entry waits here until every entry
+     * with a lower sequence number has been written; the semaphore stops the walker from getting more
+     * than its permit count ahead of the oldest unfinished file.
+     */
+    private final class OrderedSink {
+        private final IndexWriter writer;
+        private final Semaphore inFlight;
+        private final Map<Long, Optional<FileEntry>> finished = new HashMap<>();
+        private long nextSequence;
 
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = bis.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
+        private OrderedSink(IndexWriter writer, Semaphore inFlight) {
+            this.writer = writer;
+            this.inFlight = inFlight;
+        }
+
+        private boolean tryReserve() {
+            return inFlight.tryAcquire();
+        }
+
+        private void reserve() {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for hashing workers", e);
+            }
+        }
+
+        private synchronized void complete(long sequence, FileEntry entry) {
+            finished.put(sequence, Optional.ofNullable(entry));
+            Optional<FileEntry> next;
+            while ((next = finished.remove(nextSequence)) != null) {
+                next.ifPresent(ready -> emit(writer, ready));
+                nextSequence++;
+                inFlight.release();
             }
+        }
+    }
 
-            return HexFormat.of().formatHex(digest.digest());
-        } catch (NoSuchAlgorithmException | IOException e) {
-            throw new RuntimeException(e);
+    private void hashScheduled(ReadScheduler<WorkItem> scheduler, OrderedSink sink) {
+        try {
+            WorkItem item;
+            while ((item = scheduler.next()) != null) {
+                FileEntry entry = null;
+                try {
+                    entry = addMetaData(item.file(), item.previous());
+                } catch (RuntimeException e) {
+                    LOGGER.warning(String.format("Error while hashing file %s: %s", item.file(), e.getMessage()));
+                } finally {
+                    scheduler.done(item.size());
+                    sink.complete(item.sequence(), entry);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
+    /**
+     * Opens the index at the output path so unchanged files can keep their stored hash. A missing
+     * index, or one built from another root or with another hash algorithm, falls back to a full scan.
+     * The new index is written to a temporary file and only moved over this one at the end, so it can
+     * be read while the scan runs.
+     */
+    private PreviousEntries openPreviousIndex() {
+        Path indexFile = IndexStoreService.resolveOutputFile(outputPath);
+        if (!Files.exists(indexFile)) {
+            LOGGER.info(String.format("No previous index at %s, hashing every file", indexFile));
+            return null;
+        }
+
+        IndexReader reader = IndexStoreService.openSortedReader(indexFile);
+        Path previousRoot = Path.of(reader.rootPath()).toAbsolutePath().normalize();
+        if (!previousRoot.equals(userAbsolutePath)) {
+            LOGGER.warning(String.format("Previous index was built from %s, not %s; hashing every file", previousRoot, userAbsolutePath));
+            reader.close();
+            return null;
+        }
+        if (reader.hashAlgorithm() != options.hashAlgorithm()) {
+            LOGGER.warning(String.format("Previous index holds %s hashes, not %s; hashing every file",
+                    reader.hashAlgorithm().label(), options.hashAlgorithm().label()));
+            reader.close();
+            return null;
+        }
+        return new PreviousEntries(indexFile, reader);
+    }
+
+    /**
+     * The previous entry for a file the walk just reached, or null. Called on the walking thread, in
+     * walk order, which is the previous index's path order.
+     */
+    private FileEntry previousEntry(Path file) {
+        return previousEntries != null ? previousEntries.match(userAbsolutePath.relativize(file).normalize()) : null;
+    }
+
+    /**
+     * Merge-joins the previous index against the walk: both come in {@link FileEntry#BY_PATH} order, so
+     * only the next unmatched previous entry is held, however large the index is.
+     */
+    private static final class PreviousEntries implements AutoCloseable {
+        private final Path indexFile;
+        private final IndexReader reader;
+        private FileEntry head;
+        private long read;
+
+        PreviousEntries(Path indexFile, IndexReader reader) {
+            this.indexFile = indexFile;
+            this.reader = reader;
+            advance();
+        }
+
+        FileEntry match(Path relativePath) {
+            String path = relativePath.toString();
+            // Entries before the walk's position belong to files that are gone.
+            while (head != null && head.relativePath().toString().compareTo(path) < 0) {
+                advance();
+            }
+            if (head == null || !head.relativePath().toString().equals(path)) {
+                return null;
+            }
+            FileEntry match = head;
+            advance();
+            return match;
+        }
+
+        /**
+         * Reads past whatever the walk did not reach and returns how many entries the index held.
+         */
+        long finish() {
+            while (head != null) {
+                advance();
+            }
+            return read;
+        }
+
+        private void advance() {
+            if (!reader.hasNext()) {
+                head = null;
+                return;
+            }
+            head = reader.next();
+            IndexStoreService.checkDigest(indexFile, reader.hashAlgorithm(), head);
+            read++;
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+        }
+    }
+
+    private String hash(Path filePath, Path relativePath) {
+        GearChunker chunker = chunkWriter != null ? chunkers.get() : null;
+        if (chunker != null) {
+            chunker.reset();
+        }
+        long start = System.nanoTime();
+        HashResult result = fileHasher.hash(filePath, chunker);
+        metrics.hash().recordSince(start);
+        return switch (result) {
+            case HashResult.Success success -> {
+                if (chunker != null) {
+                    writeChunks(relativePath, chunker);
+                }
+                yield success.hex();
+            }
+            case HashResult.Failure failure -> {
+                LOGGER.warning(String.format("Error while hashing file %s: %s", failure.path(), failure.reason()));
+                yield null;
+            }
+        };
+    }
+
+    private void writeChunks(Path relativePath, GearChunker chunker) {
+        try {
+            chunkWriter.write(relativePath, chunker);
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Error while writing chunk file: %s", e.getMessage()));
+            System.exit(2);
+        }
+    }
+
+    private FileEntry addMetaData(Path filePath, FileEntry previous) {
+        try {
+            long start = System.nanoTime();
+            long size = Files.size(filePath);
+            FileTime lastModifiedTime = Files.getLastModifiedTime(filePath);
+            metrics.stat().recordSince(start);
+            Path relativePath = this.userAbsolutePath.relativize(filePath).normalize();
+
+            String sha256;
+            if (previous != null && previous.size() == size && previous.lastModifiedTime() == lastModifiedTime.toMillis()
+                    && (previous.hasHash() || !options.hashing()) && !options.chunking()) {
+                sha256 = options.hashing() ? previous.sha256() : FileEntry.NO_HASH;
+                reusedFiles.increment();
+            } else {
+                sha256 = options.hashing() ? hash(filePath, relativePath) : FileEntry.NO_HASH;
+                if (sha256 == null) {
+                    return null;
+                }
+                if (previous != null) {
+                    rehashedFiles.increment();
+                } else {
+                    addedFiles.increment();
+                }
+            }
+
+            return new FileEntry(relativePath, size, lastModifiedTime.toMillis(), sha256);
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Error while reading file %s: %s", filePath, e.getMessage()));
+        }
+        return null;
     }
 }
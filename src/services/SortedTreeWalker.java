@@ -0,0 +1,78 @@
+package services;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Like {@link Files#walkFileTree(Path, FileVisitor)}, but the children of every directory are visited
+ * in sorted order. A directory sorts as its name followed by the separator, which makes the files come
+ * out in the same order as sorting their relative path strings ({@code a.txt} before {@code a/b}), so
+ * a walk can be streamed straight into a path-sorted index. Symbolic links are not followed.
+ */
+final class SortedTreeWalker {
+    private record Child(Path path, BasicFileAttributes attrs, String sortKey) {
+    }
+
+    private SortedTreeWalker() {
+    }
+
+    static void walk(Path start, FileVisitor<Path> visitor) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.isDirectory()) {
+            walkDirectory(start, attrs, visitor);
+        } else {
+            visitor.visitFile(start, attrs);
+        }
+    }
+
+    private static FileVisitResult walkDirectory(Path dir, BasicFileAttributes attrs, FileVisitor<Path> visitor) throws IOException {
+        FileVisitResult result = visitor.preVisitDirectory(dir, attrs);
+        if (result == FileVisitResult.SKIP_SUBTREE) {
+            return FileVisitResult.CONTINUE;
+        }
+        if (result != FileVisitResult.CONTINUE) {
+            return result;
+        }
+
+        String separator = dir.getFileSystem().getSeparator();
+        List<Child> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                try {
+                    BasicFileAttributes childAttrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    String name = child.getFileName().toString();
+                    children.add(new Child(child, childAttrs, childAttrs.isDirectory() ? name + separator : name));
+                } catch (IOException e) {
+                    if (visitor.visitFileFailed(child, e) == FileVisitResult.TERMINATE) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return visitor.postVisitDirectory(dir, e);
+        }
+        children.sort(Comparator.comparing(Child::sortKey));
+
+        for (Child child : children) {
+            FileVisitResult childResult = child.attrs().isDirectory()
+                    ? walkDirectory(child.path(), child.attrs(), visitor)
+                    : visitor.visitFile(child.path(), child.attrs());
+            if (childResult == FileVisitResult.TERMINATE) {
+                return FileVisitResult.TERMINATE;
+            }
+            if (childResult == FileVisitResult.SKIP_SIBLINGS) {
+                break;
+            }
+        }
+        return visitor.postVisitDirectory(dir, null);
+    }
+}
@@ -0,0 +1,31 @@
+package services;
+
+import model.HashAlgorithm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental hash over a sequence of buffers. Instances are not thread-safe; {@link FileHasher} keeps
+ * one per thread.
+ */
+public interface StreamingHash {
+    /**
+     * Consumes the remaining bytes of {@code data}, leaving its position at the limit.
+     */
+    void update(ByteBuffer data);
+
+    /**
+     * Returns the digest of everything consumed since the last reset and resets.
+     */
+    byte[] digest();
+
+    void reset();
+
+    static StreamingHash create(HashAlgorithm algorithm) {
+        return switch (algorithm) {
+            case SHA256 -> new Sha256Hash();
+            case CRC32C -> new Crc32cHash();
+            case XXH64 -> new Xxh64Hash();
+        };
+    }
+}
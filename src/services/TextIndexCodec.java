@@ -0,0 +1,177 @@
+package services;
+
+import model.FileEntry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Byte-level encoding of v1 entry lines, {@code relativePath TAB size TAB mtimeMillis TAB hash}. Writes
+ * UTF-8 and decimal digits straight into a buffer and parses them back from bytes, so neither side
+ * builds a formatted or split String per entry; the only Strings made are the path and hash a
+ * {@link FileEntry} holds. The bytes are exactly those of the {@code String.format} and
+ * {@code String.split} code this replaced.
+ */
+final class TextIndexCodec {
+    static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final byte TAB = '\t';
+    // Longest decimal long, "-9223372036854775808".
+    private static final int MAX_LONG_DIGITS = 20;
+
+    private TextIndexCodec() {
+    }
+
+    /**
+     * Bytes {@link #encode} needs at most for the entry; a char never takes more than three UTF-8 bytes.
+     */
+    static int maxEncodedLength(String relativePath, String hash) {
+        return (relativePath.length() + hash.length()) * 3 + 2 * MAX_LONG_DIGITS + 3 + LINE_SEPARATOR.length;
+    }
+
+    /**
+     * Appends the entry's line, separator included. {@code relativePath} and {@code hash} are the entry's
+     * path and hash as Strings, which the caller needed for {@link #maxEncodedLength} anyway; the buffer
+     * must have that many bytes left.
+     */
+    static void encode(FileEntry entry, String relativePath, String hash, ByteBuffer out) {
+        putUtf8(relativePath, out);
+        out.put(TAB);
+        putLong(entry.size(), out);
+        out.put(TAB);
+        putLong(entry.lastModifiedTime(), out);
+        out.put(TAB);
+        putUtf8(hash, out);
+        out.put(LINE_SEPARATOR);
+    }
+
+    /**
+     * Same bytes as {@code String.getBytes(UTF_8)}, including {@code ?} for an unpaired surrogate.
+     */
+    static void putUtf8(String value, ByteBuffer out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static void putLong(long value, ByteBuffer out) {
+        if (value == Long.MIN_VALUE) {
+            putUtf8(Long.toString(value), out);
+            return;
+        }
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = out.position() + digits;
+        for (int position = end - 1; position >= out.position(); position--) {
+            out.put(position, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        out.position(end);
+    }
+
+    /**
+     * True for the lines readers skip: comments, the summary separator and blank lines.
+     */
+    static boolean isSkipped(byte[] line, int from, int to) {
+        if (from < to && (line[from] == '#' || line[from] == '=')) {
+            return true;
+        }
+        for (int i = from; i < to; i++) {
+            // Bytes above a space are never part of what String.trim() removes.
+            if ((line[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses one line without its separator, or returns null when it does not hold exactly four fields.
+     * Trailing empty fields do not count, as with {@code String.split}. A field that is not a number
+     * where one belongs throws NumberFormatException.
+     */
+    static FileEntry decode(byte[] line, int from, int to) {
+        while (to > from && line[to - 1] == TAB) {
+            to--;
+        }
+        int firstTab = indexOfTab(line, from, to);
+        int secondTab = firstTab < 0 ? -1 : indexOfTab(line, firstTab + 1, to);
+        int thirdTab = secondTab < 0 ? -1 : indexOfTab(line, secondTab + 1, to);
+        if (thirdTab < 0 || indexOfTab(line, thirdTab + 1, to) >= 0) {
+            return null;
+        }
+        long size = parseLong(line, firstTab + 1, secondTab);
+        long mtime = parseLong(line, secondTab + 1, thirdTab);
+        Path relativePath = Path.of(new String(line, from, firstTab - from, StandardCharsets.UTF_8));
+        String hash = new String(line, thirdTab + 1, to - thirdTab - 1, StandardCharsets.UTF_8);
+        return new FileEntry(relativePath, size, mtime, hash);
+    }
+
+    private static int indexOfTab(byte[] line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line[i] == TAB) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@code Long.parseLong} on the bytes, accumulating negatively so {@link Long#MIN_VALUE} fits.
+     */
+    private static long parseLong(byte[] line, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        if (i == to) {
+            throw invalidNumber(line, from, to);
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                throw invalidNumber(line, from, to);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw invalidNumber(line, from, to);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static NumberFormatException invalidNumber(byte[] line, int from, int to) {
+        return new NumberFormatException("For input string: \"" + new String(line, from, to - from, StandardCharsets.UTF_8) + "\"");
+    }
+}
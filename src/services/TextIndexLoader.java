@@ -0,0 +1,146 @@
+package services;
+
+import model.FileEntry;
+import model.IndexData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Loads a whole v1 index on several cores. The header is read as usual; the rest of the file is cut
+ * into chunks at line boundaries, each chunk is memory-mapped and parsed on the common pool, and the
+ * chunk results are joined in file order, so entries keep the order they were written in.
+ */
+final class TextIndexLoader {
+    // Below this a chunk costs more to schedule than to parse.
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    // A mapping is limited to 2 GB.
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private TextIndexLoader() {
+    }
+
+    /**
+     * Throws NumberFormatException for an entry line with a malformed size or mtime.
+     */
+    static IndexData load(Path path) throws IOException {
+        try (TextIndexReader header = new TextIndexReader(path);
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long from = header.firstEntryOffset();
+            if (from < 0) {
+                return new IndexData(header.rootPath(), List.of(), header.hashAlgorithm());
+            }
+            long[] bounds = chunkBounds(channel, from, channel.size());
+
+            List<List<FileEntry>> chunks;
+            try {
+                chunks = IntStream.range(0, bounds.length - 1).parallel()
+                        .mapToObj(chunk -> parseChunk(channel, bounds[chunk], bounds[chunk + 1]))
+                        .toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            List<FileEntry> entries = new ArrayList<>(chunks.stream().mapToInt(List::size).sum());
+            chunks.forEach(entries::addAll);
+            return new IndexData(header.rootPath(), entries, header.hashAlgorithm());
+        }
+    }
+
+    /**
+     * Offsets splitting {@code [from, to)} into chunks that each start at the beginning of a line.
+     */
+    private static long[] chunkBounds(FileChannel channel, long from, long to) throws IOException {
+        long length = to - from;
+        long chunkCount = Math.max(length / MAX_CHUNK_SIZE + 1,
+                Math.min(length / MIN_CHUNK_SIZE, (long) Runtime.getRuntime().availableProcessors() * CHUNKS_PER_THREAD));
+        long chunkSize = Math.max(1, length / Math.max(1, chunkCount));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(from);
+        ByteBuffer probe = ByteBuffer.allocate(1 << 12);
+        for (long target = from + chunkSize; target < to; target = bounds.getLast() + chunkSize) {
+            long lineStart = nextLineStart(channel, target, to, probe);
+            if (lineStart >= to) {
+                break;
+            }
+            bounds.add(lineStart);
+        }
+        bounds.add(to);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * The first offset at or after {@code position} that follows a line separator.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long end, ByteBuffer probe) throws IOException {
+        while (position < end) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                return end;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                if (b == '\r') {
+                    // "\r\n" is one separator; keep the pair together.
+                    return position + i + 1 < end && peek(channel, position + i + 1) == '\n' ? position + i + 2 : position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    private static byte peek(FileChannel channel, long position) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        return channel.read(one, position) == 1 ? one.get(0) : 0;
+    }
+
+    private static List<FileEntry> parseChunk(FileChannel channel, long from, long to) {
+        MappedByteBuffer chunk;
+        try {
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<FileEntry> entries = new ArrayList<>();
+        byte[] line = new byte[1 << 12];
+        int limit = chunk.limit();
+        int lineStart = 0;
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit) {
+                byte b = chunk.get(i);
+                if (b != '\n' && b != '\r') {
+                    continue;
+                }
+            }
+            int length = i - lineStart;
+            if (length > line.length) {
+                line = new byte[Math.max(length, line.length * 2)];
+            }
+            chunk.get(lineStart, line, 0, length);
+            lineStart = i + 1;
+            if (TextIndexCodec.isSkipped(line, 0, length)) {
+                continue;
+            }
+            FileEntry entry = TextIndexCodec.decode(line, 0, length);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,145 @@
+package services;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a v1 index line by line, holding only the next entry in memory. Lines are split and parsed as
+ * bytes by {@link TextIndexCodec}; only the header lines are decoded to Strings.
+ */
+public class TextIndexReader implements IndexReader {
+    private final FileChannel channel;
+    private final TextLineReader lines;
+    private final String rootPath;
+    private final HashAlgorithm hashAlgorithm;
+    private final boolean sortedByPath;
+    private final long firstEntryOffset;
+    private FileEntry next;
+
+    public TextIndexReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.lines = new TextLineReader(channel);
+
+        String root = null;
+        // Indexes written before the header named an algorithm were always SHA-256.
+        HashAlgorithm algorithm = HashAlgorithm.SHA256;
+        boolean sorted = false;
+        long entryOffset = -1;
+        try {
+            // The header ends at the first line that is neither a comment nor blank.
+            while (lines.next()) {
+                byte[] bytes = lines.buffer();
+                if (lines.start() < lines.end() && bytes[lines.start()] == '#') {
+                    String line = new String(bytes, lines.start(), lines.end() - lines.start(), StandardCharsets.UTF_8);
+                    if (line.startsWith("# rootDir:")) {
+                        root = line.substring("# rootDir:".length()).trim();
+                    } else if (line.startsWith("# hashAlgorithm:")) {
+                        try {
+                            algorithm = HashAlgorithm.parse(line.substring("# hashAlgorithm:".length()).trim());
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException(e.getMessage() + " in index " + file);
+                        }
+                    } else if (line.startsWith("# order:")) {
+                        sorted = line.substring("# order:".length()).trim().equals("path");
+                    }
+                    continue;
+                }
+                if (TextIndexCodec.isSkipped(bytes, lines.start(), lines.end())) {
+                    continue;
+                }
+                next = parse();
+                if (next != null) {
+                    entryOffset = lines.offset();
+                    break;
+                }
+            }
+
+            if (root == null) {
+                throw new IOException("No rootDir in index " + file);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.rootPath = root;
+        this.hashAlgorithm = algorithm;
+        this.sortedByPath = sorted;
+        this.firstEntryOffset = entryOffset;
+    }
+
+    @Override
+    public String rootPath() {
+        return rootPath;
+    }
+
+    @Override
+    public HashAlgorithm hashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    @Override
+    public boolean sortedByPath() {
+        return sortedByPath;
+    }
+
+    /**
+     * File offset of the line holding the first entry, or -1 for an index without entries. Everything
+     * from there on is entry lines, comments and the summary footer.
+     */
+    long firstEntryOffset() {
+        return firstEntryOffset;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public FileEntry next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        FileEntry current = next;
+        next = readEntry();
+        return current;
+    }
+
+    private FileEntry readEntry() {
+        try {
+            while (lines.next()) {
+                if (TextIndexCodec.isSkipped(lines.buffer(), lines.start(), lines.end())) {
+                    continue;
+                }
+                FileEntry entry = parse();
+                if (entry != null) {
+                    return entry;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileEntry parse() {
+        return IndexStoreService.parseLine(lines.buffer(), lines.start(), lines.end());
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package services;
+
+import model.FileEntry;
+import model.HashAlgorithm;
+import model.ScanSummary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Writes the v1 TSV index: header when opened, one line per entry, summary footer on finish. Entry
+ * lines are encoded by {@link TextIndexCodec} into one reused buffer.
+ */
+public class TextIndexWriter implements IndexWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    public TextIndexWriter(Path file, String rootPath, HashAlgorithm hashAlgorithm) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        writeLine("# FileBox Index v1.0");
+        writeLine("# rootDir: " + rootPath);
+        writeLine("# hashAlgorithm: " + hashAlgorithm.label());
+        writeLine("# order: path");
+        writeLine("# generatedAt: " + Instant.now().toString());
+        writeLine("# fields=relativePath\tsize\tmtimeMillis\t" + hashAlgorithm.label());
+        writeLine("");
+    }
+
+    @Override
+    public void write(FileEntry fileEntry) throws IOException {
+        String relativePath = fileEntry.relativePath().toString();
+        String hash = String.valueOf(fileEntry.sha256());
+        ensureRemaining(TextIndexCodec.maxEncodedLength(relativePath, hash));
+        TextIndexCodec.encode(fileEntry, relativePath, hash, buffer);
+    }
+
+    @Override
+    public void finish(ScanSummary scanSummary) throws IOException {
+        writeLine("======================");
+        String summary = String.format("# Summary: files=%d, totalBytes=%d durationMillis=%d ms", scanSummary.totalFiles(), scanSummary.totalBytes(), scanSummary.durationMillis());
+        if (scanSummary.hasChangeCounts()) {
+            writeLine(summary);
+            summary = String.format("# Changes: reused=%d, rehashed=%d, added=%d, removed=%d", scanSummary.reusedFiles(), scanSummary.rehashedFiles(), scanSummary.addedFiles(), scanSummary.removedFiles());
+        }
+        // The last line has no separator.
+        write(summary.getBytes(StandardCharsets.UTF_8));
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeLine(String line) throws IOException {
+        write(line.getBytes(StandardCharsets.UTF_8));
+        write(TextIndexCodec.LINE_SEPARATOR);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        ensureRemaining(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(bytes);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
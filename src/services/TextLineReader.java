@@ -0,0 +1,107 @@
+package services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Splits a channel into lines without decoding them. After {@link #next()} the current line is
+ * {@code buffer()[start(), end())}, separator excluded; the array is reused, so a line is only valid
+ * until the next call. Lines end at {@code \n}, {@code \r} or {@code \r\n}, as with
+ * {@code BufferedReader.readLine}.
+ */
+final class TextLineReader {
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int filled;
+    private int position;
+    private long bufferOffset;
+    private boolean endOfInput;
+    private boolean skipLineFeed;
+    private int start;
+    private int end;
+
+    TextLineReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.bufferOffset = channel.position();
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    /**
+     * File offset of the first byte of the current line.
+     */
+    long offset() {
+        return bufferOffset + start;
+    }
+
+    /**
+     * Moves to the next line; false at the end of the input.
+     */
+    boolean next() throws IOException {
+        while (true) {
+            for (int i = position; i < filled; i++) {
+                byte b = buffer[i];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (b == '\n') {
+                        position = i + 1;
+                        continue;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    start = position;
+                    end = i;
+                    position = i + 1;
+                    skipLineFeed = b == '\r';
+                    return true;
+                }
+            }
+            if (endOfInput) {
+                if (position < filled) {
+                    start = position;
+                    end = filled;
+                    position = filled;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Keeps the unfinished line at the front of the buffer, growing it for a line longer than the
+     * buffer, and reads more after it.
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, filled - position);
+            filled -= position;
+            bufferOffset += position;
+            position = 0;
+        }
+        if (filled == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            filled += read;
+        }
+    }
+}
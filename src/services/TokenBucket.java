@@ -0,0 +1,57 @@
+package services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bandwidth limit shared by every reader of a scan. Tokens are bytes, refilled at {@code rate} per
+ * second up to a quarter second's worth. A reader takes what it is about to read, and if that drives
+ * the bucket below zero it sleeps until the debt is paid back; other readers behind it find the bucket
+ * empty and wait their turn, so the rate holds across threads.
+ */
+final class TokenBucket {
+    private final long rate;
+    private final long capacity;
+    private final LongAdder waitedNanos = new LongAdder();
+    private long tokens;
+    private long refilledAt = System.nanoTime();
+
+    TokenBucket(long rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("rate must be >= 1, got " + rate);
+        }
+        this.rate = rate;
+        this.capacity = Math.max(rate / 4, 1);
+        this.tokens = capacity;
+    }
+
+    long rate() {
+        return rate;
+    }
+
+    void acquire(long bytes) {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long refill = (long) ((now - refilledAt) / 1e9 * rate);
+            if (refill > 0) {
+                tokens = Math.min(capacity, tokens + refill);
+                refilledAt = now;
+            }
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / rate) : 0;
+        }
+        if (waitNanos > 0) {
+            waitedNanos.add(waitNanos);
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    long waitedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitedNanos.sum());
+    }
+}
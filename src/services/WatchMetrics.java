@@ -0,0 +1,216 @@
+package services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms of a watcher. The event rate is averaged over the last
+ * {@value #RATE_WINDOW_SECONDS} seconds so it shows bursts rather than the lifetime average.
+ */
+public class WatchMetrics implements WatchMetricsMBean {
+    static final String JMX_TYPE = "Watch";
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    private final long startNanos = System.nanoTime();
+    private final LongSupplier indexEntries;
+    private final LongSupplier journalRecords;
+    private final LongSupplier queuedEvents;
+    private final LongAdder rawEvents = new LongAdder();
+    private final LongAdder appliedChanges = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder pendingPaths = new LongAdder();
+    private volatile long startupMillis = -1;
+    private volatile long reconcileMillis = -1;
+    private final LatencyHistogram hash = new LatencyHistogram();
+    private final LatencyHistogram journalAppend = new LatencyHistogram();
+    private final LatencyHistogram save = new LatencyHistogram();
+    // One slot per second of the rate window, keyed by the second it currently counts.
+    private final long[] slotSeconds = new long[RATE_WINDOW_SECONDS];
+    private final long[] slotEvents = new long[RATE_WINDOW_SECONDS];
+
+    public WatchMetrics(LongSupplier indexEntries, LongSupplier journalRecords, LongSupplier queuedEvents) {
+        this.indexEntries = indexEntries;
+        this.journalRecords = journalRecords;
+        this.queuedEvents = queuedEvents;
+    }
+
+    void recordEvents(int count) {
+        rawEvents.add(count);
+        long second = secondsSinceStart();
+        int slot = (int) (second % RATE_WINDOW_SECONDS);
+        synchronized (slotEvents) {
+            if (slotSeconds[slot] != second) {
+                slotSeconds[slot] = second;
+                slotEvents[slot] = 0;
+            }
+            slotEvents[slot] += count;
+        }
+    }
+
+    void recordApplied(long count) {
+        appliedChanges.add(count);
+    }
+
+    void recordDropped(long count) {
+        droppedEvents.add(count);
+    }
+
+    /**
+     * Workers each hold their own pending paths and report how their count moved.
+     */
+    void adjustPendingPaths(long delta) {
+        pendingPaths.add(delta);
+    }
+
+    void startupMillis(long millis) {
+        startupMillis = millis;
+    }
+
+    void reconcileMillis(long millis) {
+        reconcileMillis = millis;
+    }
+
+    LatencyHistogram hash() {
+        return hash;
+    }
+
+    LatencyHistogram journalAppend() {
+        return journalAppend;
+    }
+
+    LatencyHistogram save() {
+        return save;
+    }
+
+    private long secondsSinceStart() {
+        // Offset by one so that an untouched slot (second 0) never looks current.
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos) + 1;
+    }
+
+    @Override
+    public long getRawEvents() {
+        return rawEvents.sum();
+    }
+
+    @Override
+    public long getAppliedChanges() {
+        return appliedChanges.sum();
+    }
+
+    @Override
+    public long getEventsPerSecond() {
+        long now = secondsSinceStart();
+        long events = 0;
+        synchronized (slotEvents) {
+            for (int slot = 0; slot < RATE_WINDOW_SECONDS; slot++) {
+                if (now - slotSeconds[slot] < RATE_WINDOW_SECONDS) {
+                    events += slotEvents[slot];
+                }
+            }
+        }
+        return events / Math.min(RATE_WINDOW_SECONDS, now);
+    }
+
+    /**
+     * Time from {@code start()} until events were being handled, or -1 before that.
+     */
+    @Override
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    /**
+     * Time the startup reconciliation took to queue its changes, or -1 while it runs.
+     */
+    @Override
+    public long getReconcileMillis() {
+        return reconcileMillis;
+    }
+
+    @Override
+    public long getPendingPaths() {
+        return pendingPaths.sum();
+    }
+
+    @Override
+    public long getQueuedEvents() {
+        return queuedEvents.getAsLong();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    @Override
+    public long getIndexEntries() {
+        return indexEntries.getAsLong();
+    }
+
+    @Override
+    public long getJournalRecords() {
+        return journalRecords.getAsLong();
+    }
+
+    @Override
+    public long getHashCount() {
+        return hash.count();
+    }
+
+    @Override
+    public long getHashMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(hash.meanNanos());
+    }
+
+    @Override
+    public long getHashP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(hash.percentileNanos(99));
+    }
+
+    @Override
+    public long getJournalAppendP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(journalAppend.percentileNanos(99));
+    }
+
+    @Override
+    public long getSaveCount() {
+        return save.count();
+    }
+
+    @Override
+    public long getSaveMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(save.meanNanos());
+    }
+
+    @Override
+    public long getSaveMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(save.maxNanos());
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("uptimeMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        stats.put("startupMillis", getStartupMillis());
+        stats.put("reconcileMillis", getReconcileMillis());
+        stats.put("rawEvents", getRawEvents());
+        stats.put("appliedChanges", getAppliedChanges());
+        stats.put("eventsPerSecond", getEventsPerSecond());
+        stats.put("pendingPaths", getPendingPaths());
+        stats.put("queuedEvents", getQueuedEvents());
+        stats.put("droppedEvents", getDroppedEvents());
+        stats.put("indexEntries", getIndexEntries());
+        stats.put("journalRecords", getJournalRecords());
+        stats.putAll(hash.stats("hash"));
+        stats.putAll(journalAppend.stats("journalAppend"));
+        stats.putAll(save.stats("save"));
+        return stats;
+    }
+
+    public String describe() {
+        return String.format("%d raw events, %d dropped, %d changes applied; hash %s; journal append %s; save %s",
+                getRawEvents(), getDroppedEvents(), getAppliedChanges(), hash.describe(), journalAppend.describe(), save.describe());
+    }
+}
@@ -0,0 +1,40 @@
+package services;
+
+/**
+ * Live view of a running watcher, published as {@code filebox:type=Watch}. Latencies are in microseconds.
+ */
+public interface WatchMetricsMBean {
+    long getStartupMillis();
+
+    long getReconcileMillis();
+
+    long getRawEvents();
+
+    long getAppliedChanges();
+
+    long getEventsPerSecond();
+
+    long getPendingPaths();
+
+    long getQueuedEvents();
+
+    long getDroppedEvents();
+
+    long getIndexEntries();
+
+    long getJournalRecords();
+
+    long getHashCount();
+
+    long getHashMeanMicros();
+
+    long getHashP99Micros();
+
+    long getJournalAppendP99Micros();
+
+    long getSaveCount();
+
+    long getSaveMeanMicros();
+
+    long getSaveMaxMicros();
+}
@@ -1,23 +1,61 @@
 package services;
 
+import model.Backpressure;
 import model.FileEntry;
+import model.HashAlgorithm;
+import model.HashResult;
+import model.IndexFormat;
 import model.ScanSummary;
+import model.WatchOptions;
 
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HexFormat;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
+/**
+ * Keeps an index in line with a directory tree as a pipeline, so a large file being hashed never holds
+ * up the kernel event queue:
+ * <ol>
+ *     <li>the thread calling {@link #start()} only drains watch keys and queues each event to the worker
+ *     its path hashes to;</li>
+ *     <li>each worker coalesces the events of its own paths and stats and hashes them once they settle.
+ *     A path always lands on the same worker, so its changes are decided in the order they happened;</li>
+ *     <li>a single writer applies the results to the index and the journal.</li>
+ * </ol>
+ * Overflows and new directories are walked on a separate resync thread, which feeds the same workers.
+ * <p>
+ * {@link #start()} loads the index while it registers the directory tree on a pool of threads, and
+ * starts handling events as soon as both are done. The tree is then reconciled against the index in the
+ * background: files whose size or mtime changed while nobody was watching go to the workers like any
+ * other event, so the two sources merge per path and each change is decided by what is on disk.
+ */
 public class WatcherService {
     private static Logger LOGGER = Logger.getLogger(WatcherService.class.getName());
     private final java.nio.file.WatchService INSTANCE;
@@ -25,29 +63,162 @@ public class WatcherService {
     private boolean running = false;
 
     private final Path rootPath;
-    private final Map<Path, FileEntry> index;
+    private final List<Path> roots = new ArrayList<>();
+    private final Supplier<List<FileEntry>> entries;
+    private final PathFilter filter;
+    private final CompactIndex index;
     private final String indexFilePath;
+    private final IndexFormat indexFormat;
+    private final HashAlgorithm hashAlgorithm;
+    private final FileHasher fileHasher;
+    private final WatchOptions options;
+    private final IndexJournal journal;
+    private final ScheduledExecutorService compactor;
+    private final ExecutorService resyncer;
+    private final Set<Path> resyncPending = ConcurrentHashMap.newKeySet();
+    private final List<BlockingQueue<StripeEvent>> stripes = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final BlockingQueue<IndexUpdate> updates;
+    private final Thread writer;
+    private volatile long processedChanges;
+    private volatile boolean loaded;
+    private final WatchMetrics metrics;
+
+    private record StripeEvent(Path relativePath, WatchEvent.Kind<?> kind, long nanos) {
+    }
 
-    public WatcherService(Path rootPath, List<FileEntry> entries, String indexFilePath) throws IOException {
-        this.rootPath = rootPath;
-        this.indexFilePath = indexFilePath;
+    /**
+     * What a worker decided a settled change means for the index.
+     */
+    private sealed interface IndexUpdate {
+        record Upsert(FileEntry entry) implements IndexUpdate {
+        }
+
+        // A file that is on disk but left out by the filter rules.
+        record Delete(Path relativePath) implements IndexUpdate {
+        }
+
+        record DeleteTree(Path relativePath) implements IndexUpdate {
+        }
+
+        record EndOfUpdates() implements IndexUpdate {
+        }
+    }
 
-        this.index = new ConcurrentHashMap<>();
-        for(FileEntry entry : entries) {
-            index.put(entry.relativePath(), entry);
+    public WatcherService(Path rootPath, List<FileEntry> entries, HashAlgorithm hashAlgorithm, String indexFilePath) throws IOException {
+        this(rootPath, () -> entries, hashAlgorithm, indexFilePath, WatchOptions.defaults());
+    }
 
+    public WatcherService(Path rootPath, List<FileEntry> entries, HashAlgorithm hashAlgorithm, String indexFilePath, WatchOptions options) throws IOException {
+        this(rootPath, () -> entries, hashAlgorithm, indexFilePath, options);
+    }
+
+    /**
+     * {@code hashAlgorithm} must be the one the entries were hashed with, so changed files are hashed the
+     * same way and the index never mixes algorithms. {@code entries} is called once, by {@link #start()},
+     * on a startup thread while the directories are being registered.
+     */
+    public WatcherService(Path rootPath, Supplier<List<FileEntry>> entries, HashAlgorithm hashAlgorithm, String indexFilePath, WatchOptions options) throws IOException {
+        this.rootPath = rootPath;
+        this.entries = entries;
+        this.filter = new PathFilter(rootPath, options.filterRules());
+        this.hashAlgorithm = hashAlgorithm;
+        this.index = new CompactIndex(hashAlgorithm);
+        this.fileHasher = new FileHasher(hashAlgorithm);
+        this.indexFilePath = indexFilePath;
+        this.options = options;
+        Path indexFile = IndexStoreService.resolveOutputFile(indexFilePath);
+        this.indexFormat = Files.exists(indexFile) ? IndexStoreService.detectFormat(indexFile) : IndexFormat.V1;
+        this.journal = new IndexJournal(indexFile);
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "filebox-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.resyncer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "filebox-resync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < options.workers(); i++) {
+            BlockingQueue<StripeEvent> stripe = new ArrayBlockingQueue<>(options.queueCapacity());
+            stripes.add(stripe);
+            Thread worker = new Thread(() -> processStripe(stripe), "filebox-watch-worker-" + (i + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
         }
+        this.updates = new ArrayBlockingQueue<>(options.queueCapacity());
+        this.writer = new Thread(this::applyUpdates, "filebox-watch-writer");
+        writer.setDaemon(true);
+
         this.INSTANCE = FileSystems.getDefault().newWatchService();
+        this.metrics = new WatchMetrics(index::size, journal::records, this::queuedEvents);
+    }
+
+    public WatchMetrics metrics() {
+        return metrics;
+    }
+
+    // Read-only views for IndexServer, which answers requests from the live index.
+    CompactIndex index() {
+        return index;
+    }
+
+    Path rootPath() {
+        return rootPath;
+    }
+
+    HashAlgorithm hashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * Whether {@link #start()} has loaded the index; before that it is empty or partly filled.
+     */
+    boolean loaded() {
+        return loaded;
     }
 
     public void start() throws IOException {
-        if (KEYS.isEmpty()) {
+        if (roots.isEmpty()) {
             LOGGER.info("Register at least one directory");
             System.exit(0);
         }
 
         this.running = true;
-        LOGGER.info("Starting watch service  " + this.KEYS.size() + " directories (recursive). Press ctrl+c to stop");
+        long startNanos = System.nanoTime();
+        Metrics.register(WatchMetrics.JMX_TYPE, metrics);
+        ForkJoinPool startupPool = startupPool();
+        Queue<Path> directories = new ConcurrentLinkedQueue<>();
+        try {
+            Future<?> loading = startupPool.submit(() -> entries.get().forEach(index::put));
+            for (Path root : roots) {
+                startupPool.invoke(ForkJoinTask.adapt(() -> registerTree(root, directories)));
+            }
+            loading.get();
+            loaded = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot load the index", e.getCause());
+        }
+
+        compactor.scheduleWithFixedDelay(this::compactIfDirty, options.compactIntervalSeconds(), options.compactIntervalSeconds(), TimeUnit.SECONDS);
+        workers.forEach(Thread::start);
+        writer.start();
+        long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        metrics.startupMillis(startupMillis);
+        LOGGER.info(String.format("Watching %d directories after %d ms (%d index entries), %d workers, queue capacity %d, backpressure %s. Press ctrl+c to stop",
+                this.KEYS.size(), startupMillis, index.size(), workers.size(), options.queueCapacity(), options.backpressure()));
+
+        CompletableFuture.runAsync(() -> reconcile(directories), startupPool)
+                .whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        LOGGER.warning("Reconciliation failed: " + e.getMessage());
+                    }
+                    startupPool.shutdown();
+                });
 
         while (running) {
             WatchKey key;
@@ -56,63 +227,357 @@ public class WatcherService {
             } catch (InterruptedException e) {
                 LOGGER.warning(e.getMessage());
                 break;
+            } catch (ClosedWatchServiceException e) {
+                break;
+            }
+            handleKey(key);
+        }
+    }
+
+    private void handleKey(WatchKey key) {
+        Path baseDir = KEYS.get(key);
+        if (baseDir == null) {
+            LOGGER.warning("Unknown WatchKey (no baseDir).");
+            key.reset();
+            return;
+        }
+
+        long now = System.nanoTime();
+        boolean overflowed = false;
+        List<WatchEvent<?>> events = key.pollEvents();
+        metrics.recordEvents(events.size());
+        for (WatchEvent<?> event : events) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == OVERFLOW) {
+                overflowed = true;
+                continue;
             }
 
-            Path baseDir = KEYS.get(key);
-            if (baseDir == null) {
-                LOGGER.warning("Unknown WatchKey (no baseDir).");
-                key.reset();
+            Path fullPath = baseDir.resolve((Path) event.context());
+            LOGGER.fine(String.format("[%s] %s", kind.name(), fullPath));
+
+            if (kind == ENTRY_CREATE && Files.isDirectory(fullPath, LinkOption.NOFOLLOW_LINKS)) {
+                // Registers the new directories and picks up files written before they had a watch key.
+                if (filter.entersDirectory(fullPath)) {
+                    requestResync(fullPath);
+                }
                 continue;
             }
+            dispatch(new StripeEvent(rootPath.relativize(fullPath), kind, now), baseDir);
+        }
+
+        if (overflowed) {
+            LOGGER.warning("Overflow in " + baseDir + ", resynchronizing it from disk");
+            requestResync(baseDir);
+        }
+
+        boolean valid = key.reset();
+        if (!valid) {
+            this.KEYS.remove(key);
+
+            if (this.KEYS.isEmpty()) {
+                LOGGER.info("No directories found to watch. Stopping");
+                this.stop();
+            }
+        }
+    }
 
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind<?> kind = event.kind();
-                Path relativePath = (Path) event.context();
-                Path fullPath = baseDir.resolve(relativePath);
+    private ForkJoinPool startupPool() {
+        return new ForkJoinPool(options.workers(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("filebox-startup-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
 
+    /**
+     * Registers a directory and, in parallel, every directory below it, collecting them for
+     * reconciliation. Runs inside the startup pool; symbolic links are not followed.
+     */
+    private void registerTree(Path directory, Queue<Path> registered) {
+        List<ForkJoinTask<?>> children = new ArrayList<>();
+        try {
+            watch(directory);
+            registered.add(directory);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) && filter.entersDirectory(child)) {
+                        children.add(ForkJoinTask.adapt(() -> registerTree(child, registered)));
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted since its parent was listed; the parent's watch key reports it.
+            return;
+        } catch (IOException e) {
+            LOGGER.warning("Cannot register " + directory + ": " + e.getMessage());
+            System.exit(2);
+        }
+        ForkJoinTask.invokeAll(children);
+    }
 
-                LOGGER.info(String.format("[%s] %s",kind.name(), fullPath));
-                if (kind == OVERFLOW) {
-                    LOGGER.warning("Overflow");
-                    continue;
+    /**
+     * Compares every file in the registered directories with the index, in parallel. Files whose size or
+     * mtime differ are queued to their workers, and so are index entries whose file is no longer there.
+     * Events may already be flowing for the same paths; that is harmless, as a worker decides by the file
+     * as it is when the path settles, whichever source queued it.
+     */
+    private void reconcile(Collection<Path> directories) {
+        long start = System.nanoTime();
+        Set<Path> seen = ConcurrentHashMap.newKeySet();
+        LongAdder unchanged = new LongAdder();
+        LongAdder queued = new LongAdder();
+
+        directories.parallelStream().forEach(directory -> {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    // Entries of files the rules now leave out are not seen, so they are removed below.
+                    if (!attrs.isRegularFile() || !filter.acceptsFile(file, attrs.size())) {
+                        continue;
+                    }
+                    Path relativePath = rootPath.relativize(file);
+                    seen.add(relativePath);
+
+                    FileEntry existing = index.get(relativePath);
+                    if (existing != null && existing.size() == attrs.size()
+                            && existing.lastModifiedTime() == attrs.lastModifiedTime().toMillis()) {
+                        unchanged.increment();
+                    } else {
+                        dispatch(new StripeEvent(relativePath, ENTRY_MODIFY, System.nanoTime()), null);
+                        queued.increment();
+                    }
                 }
+            } catch (NoSuchFileException e) {
+                // Deleted since registration; its entries are picked up as removed below.
+            } catch (IOException e) {
+                LOGGER.warning("Cannot reconcile " + directory + ": " + e.getMessage());
+            }
+        });
+
+        // A file created after its directory was listed may already be in the index without having been
+        // seen; its delete is queued too, and the worker finds the file and keeps it.
+        long removed = 0;
+        for (Path root : roots) {
+            for (Path path : index.pathsUnder(rootPath.relativize(root))) {
+                if (!seen.contains(path)) {
+                    dispatch(new StripeEvent(path, ENTRY_DELETE, System.nanoTime()), null);
+                    removed++;
+                }
+            }
+        }
+
+        long reconcileMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        metrics.reconcileMillis(reconcileMillis);
+        LOGGER.info(String.format("Reconciled %d directories in %d ms: %d unchanged, %d queued for rehash, %d removed",
+                directories.size(), reconcileMillis, unchanged.sum(), queued.sum(), removed));
+    }
+
+    /**
+     * Queues an event to the worker that owns its path. When that queue is full, {@link Backpressure#BLOCK}
+     * waits for room; {@link Backpressure#RESYNC} drops the event and resyncs {@code baseDir} instead.
+     * A null {@code baseDir} always waits, which is what the resync walk itself needs.
+     */
+    private void dispatch(StripeEvent event, Path baseDir) {
+        BlockingQueue<StripeEvent> stripe = stripes.get(Math.floorMod(event.relativePath().hashCode(), stripes.size()));
+        if (baseDir != null && options.backpressure() == Backpressure.RESYNC) {
+            if (!stripe.offer(event)) {
+                metrics.recordDropped(1);
+                requestResync(baseDir);
+            }
+            return;
+        }
+        try {
+            stripe.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                if (kind == ENTRY_CREATE) {
-                    if(Files.isRegularFile(fullPath)){
+    private long queuedEvents() {
+        long queued = updates.size();
+        for (BlockingQueue<StripeEvent> stripe : stripes) {
+            queued += stripe.size();
+        }
+        return queued;
+    }
 
-                    Path relativeFromRoot = rootPath.relativize(fullPath);
-                    FileEntry entry = createFileEntry(fullPath, relativeFromRoot);
-                    index.put(relativeFromRoot, entry);
-                    saveIndex();
-                    } else if (Files.isDirectory(fullPath)) {
-                        registerTree(fullPath);
+    /**
+     * Schedules a resync of {@code directory} unless one is already waiting to start.
+     */
+    private void requestResync(Path directory) {
+        if (!resyncPending.add(directory)) {
+            return;
+        }
+        try {
+            resyncer.execute(() -> {
+                // Cleared before the walk, so events lost while it runs schedule another one.
+                resyncPending.remove(directory);
+                resyncDirectory(directory);
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down.
+        }
+    }
+
+    /**
+     * Brings the index entries under {@code directory} back in line with disk after events were lost,
+     * registering directories that never got a watch key. Files whose size or mtime differ from the index
+     * and entries whose file is gone are queued to their workers like any other change; files that match
+     * keep their hash.
+     */
+    private void resyncDirectory(Path directory) {
+        Path prefix = rootPath.relativize(directory);
+        Set<Path> watched = new HashSet<>(KEYS.values());
+        Set<Path> seen = new HashSet<>();
+        long[] counts = new long[3]; // unchanged, queued, registered directories
+        long now = System.nanoTime();
+
+        try {
+            Files.walkFileTree(directory, filter.wrap(new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!watched.contains(dir)) {
+                        registerOne(dir);
+                        counts[2]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Path relativePath = rootPath.relativize(file);
+                    seen.add(relativePath);
+
+                    FileEntry existing = index.get(relativePath);
+                    if (existing != null && existing.size() == attrs.size()
+                            && existing.lastModifiedTime() == attrs.lastModifiedTime().toMillis()) {
+                        counts[0]++;
+                        return FileVisitResult.CONTINUE;
                     }
+
+                    dispatch(new StripeEvent(relativePath, ENTRY_MODIFY, now), null);
+                    counts[1]++;
+                    return FileVisitResult.CONTINUE;
                 }
 
-                if (kind == ENTRY_MODIFY && Files.isRegularFile(fullPath)) {
-                    Path relativeFromRoot = rootPath.relativize(fullPath);
-                    FileEntry entry = createFileEntry(fullPath, relativeFromRoot);
-                    index.put(relativeFromRoot, entry);
-                    saveIndex();
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOGGER.warning("Cannot read " + file + " during resync: " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            }));
+        } catch (IOException e) {
+            LOGGER.warning("Resync of " + directory + " failed: " + e.getMessage());
+            return;
+        }
+
+        List<Path> removed = index.pathsUnder(prefix).stream()
+                .filter(path -> !seen.contains(path))
+                .toList();
+        removed.forEach(path -> dispatch(new StripeEvent(path, ENTRY_DELETE, now), null));
+
+        LOGGER.info(String.format("Resynced %s: %d unchanged, %d queued for rehash, %d removed, %d directories registered",
+                directory, counts[0], counts[1], removed.size(), counts[2]));
+    }
+
+    /**
+     * Worker loop: coalesces the events of one stripe and turns every path that has been quiet for the
+     * whole window into an index update. What gets written is decided by the file as it is now, so a
+     * burst of events costs one stat and at most one hash.
+     */
+    private void processStripe(BlockingQueue<StripeEvent> stripe) {
+        EventCoalescer coalescer = new EventCoalescer(options.quietMillis());
+        long reportedPending = 0;
+        try {
+            while (true) {
+                long waitNanos = coalescer.nanosUntilNextSettle(System.nanoTime());
+                StripeEvent event = waitNanos < 0 ? stripe.take() : stripe.poll(waitNanos, TimeUnit.NANOSECONDS);
+                for (; event != null; event = stripe.poll()) {
+                    coalescer.record(event.relativePath(), event.kind(), event.nanos());
                 }
 
-                if (kind == ENTRY_DELETE) {
-                    Path relativeFromRoot = rootPath.relativize(fullPath);
-                    index.remove(relativeFromRoot);
-                    saveIndex();
+                for (EventCoalescer.Change change : coalescer.drainSettled(System.nanoTime())) {
+                    IndexUpdate update = updateFor(change);
+                    if (update != null) {
+                        updates.put(update);
+                    }
                 }
+                metrics.adjustPendingPaths(coalescer.pendingCount() - reportedPending);
+                reportedPending = coalescer.pendingCount();
+            }
+        } catch (InterruptedException e) {
+            metrics.adjustPendingPaths(-reportedPending);
+        }
+    }
 
+    private IndexUpdate updateFor(EventCoalescer.Change change) {
+        Path fullPath = rootPath.resolve(change.relativePath());
+        if (Files.isRegularFile(fullPath)) {
+            if (!filter.acceptsFile(fullPath, sizeOf(fullPath))) {
+                // Left out by the rules, possibly only now that it has grown past --max-size.
+                return new IndexUpdate.Delete(change.relativePath());
             }
+            FileEntry entry = createFileEntry(fullPath, change.relativePath());
+            return entry == null ? null : new IndexUpdate.Upsert(entry);
+        }
+        if (!Files.exists(fullPath, LinkOption.NOFOLLOW_LINKS)) {
+            return new IndexUpdate.DeleteTree(change.relativePath());
+        }
+        return null;
+    }
 
-            boolean valid = key.reset();
-            if (!valid) {
-                this.KEYS.remove(key);
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
 
-                if (this.KEYS.isEmpty()) {
-                    LOGGER.info("No directories found to watch. Stopping");
-                    this.stop();
+    /**
+     * Writer loop: the only thread that changes the index or appends to the journal. Takes whatever
+     * updates have piled up and applies them as one batch.
+     */
+    private void applyUpdates() {
+        List<IndexUpdate> batch = new ArrayList<>();
+        boolean ended = false;
+        while (!ended) {
+            try {
+                batch.add(updates.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            updates.drainTo(batch);
+
+            long applied = 0;
+            for (IndexUpdate update : batch) {
+                switch (update) {
+                    case IndexUpdate.Upsert upsert -> {
+                        recordUpsert(upsert.entry());
+                        applied++;
+                    }
+                    case IndexUpdate.Delete delete -> applied += recordDelete(delete.relativePath()) ? 1 : 0;
+                    case IndexUpdate.DeleteTree delete -> applied += recordDeleteTree(delete.relativePath());
+                    case IndexUpdate.EndOfUpdates end -> ended = true;
                 }
             }
+            batch.clear();
+            if (applied > 0) {
+                processedChanges += applied;
+                metrics.recordApplied(applied);
+                LOGGER.info(String.format("Applied %d changes (%d raw events, %d changes so far)",
+                        applied, metrics.getRawEvents(), processedChanges));
+            }
         }
     }
 
@@ -120,6 +585,15 @@ public class WatcherService {
         try {
             this.running = false;
             this.INSTANCE.close();
+            resyncer.shutdownNow();
+            compactor.shutdown();
+            stopPipeline();
+            awaitCompactor();
+            LOGGER.info("Watch stats: " + metrics.describe());
+            compactIfDirty();
+            Metrics.writeStats(IndexStoreService.resolveOutputFile(indexFilePath), "watch", metrics.stats());
+            Metrics.unregister(WatchMetrics.JMX_TYPE);
+            journal.close();
         } catch (IOException e) {
             LOGGER.warning(e.getMessage());
             System.exit(2);
@@ -127,45 +601,79 @@ public class WatcherService {
 
     }
 
-    public void registerOne(Path path) {
+    /**
+     * Stops the workers, dropping changes that had not settled yet, and lets the writer finish what they
+     * already handed over. The writer is never interrupted, as that would close the journal's channel.
+     */
+    private void stopPipeline() {
         try {
-            WatchKey key = path.register(this.INSTANCE, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-            this.KEYS.put(key, path);
-        } catch (IOException e) {
-            LOGGER.warning(e.getMessage());
-            System.exit(2);
+            workers.forEach(Thread::interrupt);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            if (writer.isAlive()) {
+                updates.put(new IndexUpdate.EndOfUpdates());
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    public void registerTree(Path path) {
+    /**
+     * Waits for a scheduled compaction that is already running, so the final compaction and closing the
+     * journal never overlap it. Shutting the compactor down has cancelled the ones still to come.
+     */
+    private void awaitCompactor() {
         try {
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    registerOne(dir);
-                    return super.preVisitDirectory(dir, attrs);
-                }
-            });
+            if (!compactor.awaitTermination(5, TimeUnit.MINUTES)) {
+                LOGGER.warning("Scheduled compaction did not finish within 5 minutes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void registerOne(Path path) {
+        try {
+            watch(path);
         } catch (IOException e) {
             LOGGER.warning(e.getMessage());
             System.exit(2);
         }
     }
 
+    private void watch(Path directory) throws IOException {
+        WatchKey key = directory.register(this.INSTANCE, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        this.KEYS.put(key, directory);
+    }
+
+    /**
+     * Adds a tree to watch. Its directories are registered, in parallel, and reconciled with the index
+     * when {@link #start()} runs.
+     */
     public void registerDirectory(Path path) {
         if (!Files.isDirectory(path)) {
             LOGGER.warning(path + " is not a directory");
             System.exit(2);
         }
-        registerTree(path.toAbsolutePath().normalize());
+        roots.add(path.toAbsolutePath().normalize());
     }
 
     private FileEntry createFileEntry(Path absolutePath, Path relativePath) {
         try {
             long size = Files.size(absolutePath);
             long mtime = Files.getLastModifiedTime(absolutePath).toMillis();
-            String sha256 = calculateSha256(absolutePath);
-            return new FileEntry(relativePath, size, mtime, sha256);
+            long start = System.nanoTime();
+            HashResult result = fileHasher.hash(absolutePath);
+            metrics.hash().recordSince(start);
+            return switch (result) {
+                case HashResult.Success success -> new FileEntry(relativePath, size, mtime, success.hex());
+                case HashResult.Failure failure -> {
+                    LOGGER.warning("Cannot hash file: " + failure.path() + " - " + failure.reason());
+                    yield null;
+                }
+            };
         } catch (IOException e) {
             LOGGER.warning("Cannot read file: " + absolutePath + " - " + e.getMessage());
             return null;
@@ -173,32 +681,112 @@ public class WatcherService {
 
     }
 
-    private String calculateSha256(Path absolutePath) {
-        try(BufferedInputStream reader = new BufferedInputStream(Files.newInputStream(absolutePath))) {
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-
-            byte[] buffer = new byte[8192];
-            int bytesRead;
+    /**
+     * Changing the index and appending the matching record happen under the same lock as
+     * {@link #compact()}, so a compaction never truncates a record its snapshot does not contain.
+     */
+    private void recordUpsert(FileEntry entry) {
+        synchronized (this) {
+            index.put(entry);
+            try {
+                long start = System.nanoTime();
+                journal.appendUpsert(entry);
+                metrics.journalAppend().recordSince(start);
+            } catch (IOException e) {
+                LOGGER.warning("Cannot append to journal, saving full index: " + e.getMessage());
+                compact();
+                return;
+            }
+        }
+        compactIfLarge();
+    }
 
-            while ((bytesRead = reader.read(buffer)) != -1) {
-                messageDigest.update(buffer, 0, bytesRead);
+    /**
+     * Returns whether the path had an entry.
+     */
+    private boolean recordDelete(Path relativePath) {
+        synchronized (this) {
+            if (!index.remove(relativePath)) {
+                return false;
             }
+            try {
+                long start = System.nanoTime();
+                journal.appendDelete(relativePath);
+                metrics.journalAppend().recordSince(start);
+            } catch (IOException e) {
+                LOGGER.warning("Cannot append to journal, saving full index: " + e.getMessage());
+                compact();
+                return true;
+            }
+        }
+        compactIfLarge();
+        return true;
+    }
+
+    /**
+     * Deletes the entry for a path or, when the path was a directory, every entry below it that is
+     * still gone. Files below belong to other workers, which may have seen the directory recreated and
+     * applied a file in it after this delete was decided. A path that never held an indexed file, such
+     * as an excluded file that came and went, costs two lookups rather than a pass over the index.
+     */
+    private long recordDeleteTree(Path relativePath) {
+        if (index.contains(relativePath)) {
+            recordDelete(relativePath);
+            return 1;
+        }
+        if (!index.hasDirectory(relativePath)) {
+            return 0;
+        }
 
-            return HexFormat.of().formatHex(messageDigest.digest());
+        List<Path> below = index.pathsUnder(relativePath).stream()
+                .filter(path -> !Files.exists(rootPath.resolve(path), LinkOption.NOFOLLOW_LINKS))
+                .toList();
+        below.forEach(this::recordDelete);
+        return below.size();
+    }
 
-        }catch (NoSuchAlgorithmException | IOException e) {
-            throw new RuntimeException(e);
+    private void compactIfLarge() {
+        if (journal.records() >= options.compactThreshold()) {
+            compact();
+        }
+    }
+
+    private void compactIfDirty() {
+        if (journal.records() > 0) {
+            compact();
+        }
+    }
+
+    /**
+     * Folds the journal into the base index. Runs on the compactor thread as well as the writer, and
+     * holds the lock {@link #recordUpsert} and {@link #recordDelete} take from the snapshot until the
+     * truncate: the writer waits meanwhile, so every record the truncate drops is in the saved base.
+     * The journal is forced first, so a crash during the save still finds every record on disk.
+     */
+    private synchronized void compact() {
+        try {
+            journal.force();
+        } catch (IOException e) {
+            LOGGER.warning("Cannot flush journal: " + e.getMessage());
+        }
+        saveIndex();
+        try {
+            journal.truncate();
+        } catch (IOException e) {
+            LOGGER.warning("Cannot truncate journal: " + e.getMessage());
         }
     }
 
     private void saveIndex() {
-        List<FileEntry> entries = new ArrayList<>(index.values());
+        long start = System.nanoTime();
+        List<FileEntry> entries = index.entries();
 
         long totalBytes = entries.stream().mapToLong(FileEntry::size).sum();
 
         ScanSummary scanSummary = new ScanSummary(rootPath.toString(), totalBytes, entries.size(), 0);
 
-        new IndexStoreService(scanSummary, indexFilePath).save(entries);
+        new IndexStoreService(scanSummary, indexFilePath, indexFormat, fileHasher.algorithm()).save(entries);
+        metrics.save().recordSince(start);
 
         LOGGER.info("Index saved: " + entries.size() + " files");
     }
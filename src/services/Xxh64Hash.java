@@ -0,0 +1,134 @@
+package services;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XXH64 with seed 0, in pure Java. The digest is the canonical big-endian form, so it matches what
+ * {@code xxhsum} prints. Input is consumed in 32-byte stripes read as little-endian longs straight from
+ * the buffer; only a stripe split across two buffers is copied.
+ */
+final class Xxh64Hash implements StreamingHash {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private final ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long totalLength;
+
+    Xxh64Hash() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        totalLength = 0;
+        pending.clear();
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+        ByteBuffer input = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        totalLength += input.remaining();
+
+        if (pending.position() > 0) {
+            int take = Math.min(pending.remaining(), input.remaining());
+            pending.put(pending.position(), input, input.position(), take);
+            pending.position(pending.position() + take);
+            input.position(input.position() + take);
+            if (pending.hasRemaining()) {
+                data.position(data.limit());
+                return;
+            }
+            stripe(pending, 0);
+            pending.clear();
+        }
+
+        int position = input.position();
+        int end = input.limit();
+        long a = v1, b = v2, c = v3, d = v4;
+        for (; end - position >= STRIPE; position += STRIPE) {
+            a = round(a, input.getLong(position));
+            b = round(b, input.getLong(position + 8));
+            c = round(c, input.getLong(position + 16));
+            d = round(d, input.getLong(position + 24));
+        }
+        v1 = a;
+        v2 = b;
+        v3 = c;
+        v4 = d;
+
+        pending.put(0, input, position, end - position);
+        pending.position(end - position);
+        data.position(data.limit());
+    }
+
+    @Override
+    public byte[] digest() {
+        long hash;
+        if (totalLength >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += totalLength;
+
+        int remaining = pending.position();
+        int offset = 0;
+        for (; remaining - offset >= 8; offset += 8) {
+            hash ^= round(0, pending.getLong(offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (remaining - offset >= 4) {
+            hash ^= (pending.getInt(offset) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            offset += 4;
+        }
+        for (; offset < remaining; offset++) {
+            hash ^= (pending.get(offset) & 0xFFL) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+
+        reset();
+        return ByteBuffer.allocate(8).putLong(hash).array();
+    }
+
+    private void stripe(ByteBuffer buffer, int position) {
+        v1 = round(v1, buffer.getLong(position));
+        v2 = round(v2, buffer.getLong(position + 8));
+        v3 = round(v3, buffer.getLong(position + 16));
+        v4 = round(v4, buffer.getLong(position + 24));
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        accumulator ^= round(0, value);
+        return accumulator * PRIME1 + PRIME4;
+    }
+}